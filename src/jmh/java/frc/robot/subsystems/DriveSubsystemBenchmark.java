@@ -0,0 +1,77 @@
+package frc.robot.subsystems;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.robot.Constants.DriveConstants;
+
+/**
+ * Microbenchmarks for DriveSubsystem.drive and the kinematics step it wraps.
+ * The subsystem is built against the simulated HAL, so the Sparks and the NavX
+ * are the desktop simulation versions and the benchmark runs on any JVM.
+ */
+@State(Scope.Thread)
+public class DriveSubsystemBenchmark {
+
+    private static final int kInputs = 16;
+
+    private DriveSubsystem m_drive;
+    private final double[] m_forward = new double[kInputs];
+    private final double[] m_strafe = new double[kInputs];
+    private final double[] m_rotate = new double[kInputs];
+    private int m_index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        HAL.initialize(500, 0);
+        m_drive = new DriveSubsystem();
+
+        // Joystick inputs that walk around the circle, reverse direction and stop,
+        // so each branch of the polar slew rate limiter is taken
+        for (int i = 0; i < kInputs; i++) {
+            double angle = i * 2 * Math.PI / kInputs;
+            double magnitude = (i % 4 == 3) ? 0.0 : 0.8;
+            m_forward[i] = magnitude * Math.cos(angle);
+            m_strafe[i] = magnitude * Math.sin(angle);
+            m_rotate[i] = (i % 2 == 0) ? 0.3 : -0.3;
+        }
+        m_index = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HAL.shutdown();
+    }
+
+    private int next() {
+        m_index = (m_index + 1) & (kInputs - 1);
+        return m_index;
+    }
+
+    @Benchmark
+    public void driveRateLimited() {
+        int i = next();
+        m_drive.drive(m_forward[i], m_strafe[i], m_rotate[i], true, true);
+    }
+
+    @Benchmark
+    public void kinematicsAndDesaturate(Blackhole blackhole) {
+        int i = next();
+        SwerveModuleState[] states = DriveConstants.kDriveKinematics.toSwerveModuleStates(
+            new ChassisSpeeds(
+                m_forward[i] * DriveConstants.kMaxSpeedMetersPerSecond,
+                m_strafe[i] * DriveConstants.kMaxSpeedMetersPerSecond,
+                m_rotate[i] * DriveConstants.kMaxAngularSpeed));
+        SwerveDriveKinematics.desaturateWheelSpeeds(states, DriveConstants.kMaxSpeedMetersPerSecond);
+        blackhole.consume(states);
+    }
+}
@@ -0,0 +1,106 @@
+package frc.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.robot.Constants.DriveConstants;
+
+/**
+ * Times the WPILib kinematics step of DriveSubsystem.drive against FastSwerveKinematics:
+ * field relative inverse kinematics, desaturation and optimizing each module against its
+ * current angle. That the two give exactly the same numbers is checked by
+ * FastSwerveKinematicsTest, this only measures them.
+ */
+@State(Scope.Thread)
+public class FastSwerveKinematicsBenchmark {
+
+    private static final int kInputs = 16;
+
+    private SwerveDriveKinematics m_wpilib;
+    private FastSwerveKinematics m_fast;
+    private final double[] m_state = new double[3];
+
+    private final double[] m_forward = new double[kInputs];
+    private final double[] m_strafe = new double[kInputs];
+    private final double[] m_rotate = new double[kInputs];
+    private final double[] m_heading = new double[kInputs];
+    private final double[] m_current = new double[kInputs];
+    private int m_index;
+
+    @Setup
+    public void setup() {
+        // Full speed, stops so the modules keep their angles, and current angles on both sides of 90 degrees
+        for (int i = 0; i < kInputs; i++) {
+            double angle = i * 2 * Math.PI / kInputs;
+            double magnitude = (i % 4 == 3) ? 0.0 : 1.0;
+            m_forward[i] = magnitude * Math.cos(angle) * DriveConstants.kMaxSpeedMetersPerSecond;
+            m_strafe[i] = magnitude * Math.sin(angle) * DriveConstants.kMaxSpeedMetersPerSecond;
+            m_rotate[i] = (i % 4 == 3) ? 0.0 : ((i % 2 == 0) ? 0.5 : -0.5) * DriveConstants.kMaxAngularSpeed;
+            m_heading[i] = (i * 47) % 360 - 180;
+            m_current[i] = (i - kInputs / 2) * 0.45;
+        }
+
+        m_wpilib = new SwerveDriveKinematics(
+            new Translation2d(DriveConstants.kWheelBase / 2, DriveConstants.kTrackWidth / 2),
+            new Translation2d(DriveConstants.kWheelBase / 2, -DriveConstants.kTrackWidth / 2),
+            new Translation2d(-DriveConstants.kWheelBase / 2, DriveConstants.kTrackWidth / 2),
+            new Translation2d(-DriveConstants.kWheelBase / 2, -DriveConstants.kTrackWidth / 2));
+        m_fast = new FastSwerveKinematics(DriveConstants.kWheelBase, DriveConstants.kTrackWidth);
+        m_index = 0;
+    }
+
+    private SwerveModuleState[] wpilibStep(int i) {
+        SwerveModuleState[] states = m_wpilib.toSwerveModuleStates(ChassisSpeeds.fromFieldRelativeSpeeds(
+            m_forward[i], m_strafe[i], m_rotate[i], Rotation2d.fromDegrees(m_heading[i])));
+        SwerveDriveKinematics.desaturateWheelSpeeds(states, DriveConstants.kMaxSpeedMetersPerSecond);
+        return states;
+    }
+
+    private void fastStep(int i) {
+        m_fast.toModuleStatesFieldRelative(m_forward[i], m_strafe[i], m_rotate[i], Math.toRadians(m_heading[i]));
+        m_fast.desaturate(DriveConstants.kMaxSpeedMetersPerSecond);
+    }
+
+    private void fastOptimize(int module, double current) {
+        m_state[FastSwerveKinematics.kSpeed] = m_fast.getSpeed(module);
+        m_state[FastSwerveKinematics.kCos] = m_fast.getCos(module);
+        m_state[FastSwerveKinematics.kSin] = m_fast.getSin(module);
+        FastSwerveKinematics.optimize(m_state, current);
+    }
+
+    private int next() {
+        m_index = (m_index + 1) & (kInputs - 1);
+        return m_index;
+    }
+
+    @Benchmark
+    public void wpilib(Blackhole blackhole) {
+        int i = next();
+        SwerveModuleState[] states = wpilibStep(i);
+        Rotation2d current = new Rotation2d(m_current[i]);
+        for (SwerveModuleState state : states) {
+            state.optimize(current);
+            blackhole.consume(state.speedMetersPerSecond);
+            blackhole.consume(state.angle.getRadians());
+        }
+    }
+
+    @Benchmark
+    public void fast(Blackhole blackhole) {
+        int i = next();
+        fastStep(i);
+        for (int m = 0; m < FastSwerveKinematics.kModuleCount; m++) {
+            fastOptimize(m, m_current[i]);
+            blackhole.consume(m_state[FastSwerveKinematics.kSpeed]);
+            blackhole.consume(FastSwerveKinematics.getRadians(m_state));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package frc.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Microbenchmarks for the angle helpers used by the rate limited drive path.
+ * Inputs cycle through a fixed table so every branch of the helpers gets exercised.
+ */
+@State(Scope.Thread)
+public class SwerveUtilsBenchmark {
+
+    private static final int kInputs = 64;
+
+    private final double[] m_current = new double[kInputs];
+    private final double[] m_target = new double[kInputs];
+    private int m_index;
+
+    @Setup
+    public void setup() {
+        // Spread the angles over several wraps in both directions
+        for (int i = 0; i < kInputs; i++) {
+            m_current[i] = (i - kInputs / 2) * 0.7;
+            m_target[i] = (kInputs / 2 - i) * 1.3;
+        }
+        m_index = 0;
+    }
+
+    private int next() {
+        m_index = (m_index + 1) & (kInputs - 1);
+        return m_index;
+    }
+
+    @Benchmark
+    public double stepTowardsCircular() {
+        int i = next();
+        return SwerveUtils.StepTowardsCircular(m_current[i], m_target[i], 0.05);
+    }
+
+    @Benchmark
+    public double wrapAngle() {
+        return SwerveUtils.WrapAngle(m_target[next()]);
+    }
+
+    @Benchmark
+    public double angleDifference() {
+        int i = next();
+        return SwerveUtils.AngleDifference(m_current[i], m_target[i]);
+    }
+}
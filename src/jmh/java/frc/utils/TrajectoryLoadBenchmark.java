@@ -0,0 +1,107 @@
+package frc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.trajectory.Trajectory;
+import edu.wpi.first.math.trajectory.TrajectoryConfig;
+import edu.wpi.first.math.trajectory.TrajectoryGenerator;
+import frc.robot.Constants.AutoConstants;
+import frc.robot.Constants.DriveConstants;
+
+/**
+ * Compares loading a path from its waypoint file against mapping its compiled file, and
+ * sampling a WPILib trajectory against sampling the compiled one.
+ * The path is an S curve across half the field, longer than any real auto path.
+ */
+@State(Scope.Thread)
+public class TrajectoryLoadBenchmark {
+
+    private static final int kInputs = 64;
+
+    private File m_directory;
+    private File m_waypoints;
+    private File m_compiled;
+    private Trajectory m_trajectory;
+    private CompiledTrajectory m_compiledTrajectory;
+    private final CompiledTrajectory.Sample m_sample = new CompiledTrajectory.Sample();
+    private final double[] m_times = new double[kInputs];
+    private int m_index;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        m_directory = Files.createTempDirectory("paths").toFile();
+        m_waypoints = new File(m_directory, "SCurve.csv");
+
+        List<Pose2d> waypoints = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            double direction = (i % 2 == 0) ? 20 : -20;
+            waypoints.add(new Pose2d(1.0 + i, 4.0 + 0.5 * Math.sin(i), Rotation2d.fromDegrees(direction)));
+        }
+        try (PrintWriter out = new PrintWriter(m_waypoints)) {
+            out.println("# x (m), y (m), direction of travel (deg), robot heading (deg)");
+            for (Pose2d waypoint : waypoints) {
+                out.printf("%.3f, %.3f, %.1f, 0%n", waypoint.getX(), waypoint.getY(), waypoint.getRotation().getDegrees());
+            }
+        }
+
+        m_compiled = new File(m_directory, TrajectoryCompiler.compiledName("SCurve", false));
+        TrajectoryCompiler.compile(m_waypoints, false).write(m_compiled);
+        m_compiledTrajectory = CompiledTrajectory.map(m_compiled);
+        m_trajectory = TrajectoryGenerator.generateTrajectory(waypoints,
+            new TrajectoryConfig(AutoConstants.kMaxSpeedMetersPerSecond, AutoConstants.kMaxAccelerationMetersPerSecondSquared)
+                .setKinematics(DriveConstants.kDriveKinematics));
+
+        // Sample times spread over the whole path, out of order so the search can't lean on the last one
+        double total = m_trajectory.getTotalTimeSeconds();
+        for (int i = 0; i < kInputs; i++) {
+            m_times[i] = total * ((i * 37) % kInputs) / kInputs;
+        }
+        m_index = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        m_waypoints.delete();
+        m_compiled.delete();
+        m_directory.delete();
+    }
+
+    private int next() {
+        m_index = (m_index + 1) & (kInputs - 1);
+        return m_index;
+    }
+
+    @Benchmark
+    public CompiledTrajectory loadFromWaypoints() throws IOException {
+        return TrajectoryCompiler.compile(m_waypoints, false);
+    }
+
+    @Benchmark
+    public CompiledTrajectory loadCompiled() throws IOException {
+        return CompiledTrajectory.map(m_compiled);
+    }
+
+    @Benchmark
+    public Trajectory.State sampleTrajectory() {
+        return m_trajectory.sample(m_times[next()]);
+    }
+
+    @Benchmark
+    public CompiledTrajectory.Sample sampleCompiled() {
+        return m_compiledTrajectory.sample(m_times[next()], m_sample);
+    }
+}
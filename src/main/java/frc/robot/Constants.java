@@ -9,7 +9,14 @@ import com.revrobotics.spark.config.SparkBaseConfig.IdleMode;
 import com.revrobotics.spark.config.SparkMaxConfig;
 import com.revrobotics.spark.config.SparkFlexConfig;
 
+import frc.robot.subsystems.VisionCamera;
+import frc.utils.FieldTagIndex;
+import frc.utils.GamePieceIntake;
+
+import edu.wpi.first.math.geometry.Rotation3d;
+import edu.wpi.first.math.geometry.Transform3d;
 import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.geometry.Translation3d;
 import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.trajectory.TrapezoidProfile;
 import edu.wpi.first.math.util.Units;
@@ -58,6 +65,27 @@ public final class Constants {
 
 
                 public static final double kUnitstoFeet = 4.2;
+
+                // Pose estimation, how far back vision can reach and how much each source is trusted
+                public static final int kPoseHistorySize = 512; // odometry samples kept for latency compensation
+                public static final double kOdometryTranslationStdDev = 0.1; // meters
+                public static final double kOdometryRotationStdDev = 0.1; // radians
+                public static final double kVisionTranslationStdDev = 0.9; // meters
+                public static final double kVisionRotationStdDev = 0.9; // radians
+
+                // Sample the encoders and gyro on their own thread between main loops
+                public static final boolean kUseOdometrySampler = true;
+                public static final double kOdometrySamplerPeriod = 0.01; // seconds, 100 Hz
+                // The sampler only sees new values if the inputs update as often as it reads them. Only the
+                // frames it reads are sped up: the driving encoder's on the 4 driving Sparks and the absolute
+                // encoder's on the 4 turning Sparks. With the turning Sparks' unused encoder frame slowed
+                // down below, the drive's encoder frames come to about 810 frames/s, roughly 11% of the
+                // 1 Mbit/s bus against 5% at the default periods. 5 ms would have been about 21%.
+                public static final int kOdometryStatusPeriodMs = 10; // Spark position status frames
+                public static final byte kGyroUpdateRateHz = (byte) 100; // on SPI, not the CAN bus
+                // Nothing reads the turning Sparks' built-in encoder, their closed loop uses the absolute one
+                public static final int kUnusedStatusPeriodMs = 500;
+                public static final int kOdometrySamplerCapacity = 64; // samples, a few loops of slack
         }
 
         public static final class ModuleConstants {
@@ -123,6 +151,15 @@ public final class Constants {
                                 .outputRange(-1, 1)
                                 .positionWrappingEnabled(true)
                                 .positionWrappingInputRange(0, turningFactor);
+
+                        // Send the positions the odometry sampler reads as often as it reads them
+                        if (DriveConstants.kUseOdometrySampler) {
+                                drivingConfig.signals.primaryEncoderPositionPeriodMs(DriveConstants.kOdometryStatusPeriodMs);
+                                turningConfig.signals.absoluteEncoderPositionPeriodMs(DriveConstants.kOdometryStatusPeriodMs);
+                        }
+                        turningConfig.signals
+                                .primaryEncoderPositionPeriodMs(DriveConstants.kUnusedStatusPeriodMs)
+                                .primaryEncoderVelocityPeriodMs(DriveConstants.kUnusedStatusPeriodMs);
                 }
         }
 
@@ -146,6 +183,21 @@ public final class Constants {
                 public static final double kLowestLevel = 0.0;
                 public static final double kHighestLevel = 245.0;
 
+                // Level moves run on the SparkFlex as MAXMotion profiles
+                public static final double kMaxVelocityRpm = 4500; // motor RPM, Vortex free speed is 6784
+                public static final double kMaxAccelerationRpmPerSecond = 9000; // motor RPM per second
+                public static final double kPositionTolerance = 0.5; // motor rotations
+
+                // Feedforward gains fitted by the characterization routine in test mode, saved in the deploy directory
+                public static final String kFeedforwardFile = "elevator_feedforward.properties";
+                public static final double kQuasistaticRampVoltsPerSecond = 0.5;
+                public static final double kDynamicStepVolts = 4.0;
+                public static final double kCharacterizationMaxVolts = 7.0;
+                public static final double kCharacterizationUpperLimit = 200; // motor rotations, stop moving up past this
+                public static final double kCharacterizationLowerLimit = 20; // motor rotations, stop moving down past this
+                public static final double kCharacterizationRestSeconds = 1.0;
+                public static final double kCharacterizationMinVelocity = 0.2; // motor rotations per second
+
                 public static final SparkFlexConfig leadConfig = new SparkFlexConfig();
                 public static final SparkFlexConfig followConfig = new SparkFlexConfig();
 
@@ -162,6 +214,10 @@ public final class Constants {
                         leadConfig.closedLoop.feedbackSensor(FeedbackSensor.kPrimaryEncoder);
                         leadConfig.closedLoop.pid(0.4, 0, 0.2);
                         leadConfig.closedLoop.outputRange(-1,1);
+                        leadConfig.closedLoop.maxMotion
+                                .maxVelocity(kMaxVelocityRpm)
+                                .maxAcceleration(kMaxAccelerationRpmPerSecond)
+                                .allowedClosedLoopError(kPositionTolerance);
                         
 
                         followConfig.apply(leadConfig);
@@ -179,9 +235,24 @@ public final class Constants {
                 public static final double kCoralSpeed = 0.5;
                 public static final double kCoralWristSpeed = 0.20;
 
+                // Intake stops on its own when the rollers stall on a coral, then holds it gently
+                public static final GamePieceIntake.Tuning kIntakeTuning = new GamePieceIntake.Tuning(
+                        -kCoralSpeed, // intake speed, negative pulls in
+                        -0.05,        // hold speed
+                        15.0,         // current threshold, amps
+                        1000,         // velocity threshold, RPM
+                        0.25,         // spin-up seconds
+                        0.06,         // detect seconds
+                        0.10);        // seat seconds
+
                 // Coral Wrist Levels are 0-Stow, 1-Intake, 2-L1-3Score, 3-L4Score
                 public static final double[] coralwristlevels = {0, 11.66, 38.9, 29.3};
 
+                // Wrist moves run on the SparkMax as MAXMotion profiles
+                public static final double kWristMaxVelocityRpm = 3000; // motor RPM
+                public static final double kWristMaxAccelerationRpmPerSecond = 6000; // motor RPM per second
+                public static final double kWristPositionTolerance = 0.5; // motor rotations
+
                 public static final SparkMaxConfig coral = new SparkMaxConfig();
                 public static final SparkMaxConfig wrist = new SparkMaxConfig();
 
@@ -196,11 +267,15 @@ public final class Constants {
 
                         wrist.smartCurrentLimit(50);
                         wrist.idleMode(IdleMode.kBrake);                    
-                        wrist.closedLoopRampRate(1.0);            
+                        wrist.openLoopRampRate(1.0); // The MAXMotion profile limits closed loop acceleration            
 
                         wrist.closedLoop.feedbackSensor(FeedbackSensor.kPrimaryEncoder);
-                        wrist.closedLoop.pid(0.1, 0, 0);
+                        wrist.closedLoop.pid(0.05, 0, 0.01);
                         wrist.closedLoop.outputRange(-1, 1);
+                        wrist.closedLoop.maxMotion
+                                .maxVelocity(kWristMaxVelocityRpm)
+                                .maxAcceleration(kWristMaxAccelerationRpmPerSecond)
+                                .allowedClosedLoopError(kWristPositionTolerance);
 
                 }
 
@@ -215,10 +290,25 @@ public final class Constants {
                 // Algae Wrist Levels are 0-Stowed, 1-Unfolded, 2-AimforBarge 
                 public static final double[] algaewristlevels = {1.7, 40, 25}; // This needs to be calibrated manually and then modified
 
+                // Wrist moves run on the SparkMax as MAXMotion profiles
+                public static final double kWristMaxVelocityRpm = 3000; // motor RPM
+                public static final double kWristMaxAccelerationRpmPerSecond = 6000; // motor RPM per second
+                public static final double kWristPositionTolerance = 0.5; // motor rotations
+
                 // Speed
                 public static final double kAlgaeSpeed = 0.5;
                 public static final double kAlgaeWristSpeed = 0.5;
 
+                // Intake stops on its own when the rollers stall on an algae ball, then holds it against the wheels
+                public static final GamePieceIntake.Tuning kIntakeTuning = new GamePieceIntake.Tuning(
+                        kAlgaeSpeed,  // intake speed, positive pulls in
+                        0.10,         // hold speed
+                        15.0,         // current threshold, amps
+                        500,          // velocity threshold, RPM
+                        0.25,         // spin-up seconds
+                        0.10,         // detect seconds
+                        0.0);         // seat seconds, the ball is already against the backstop
+
                 public static final SparkMaxConfig AlgaeLead = new SparkMaxConfig();
                 public static final SparkMaxConfig AlgaeFollow = new SparkMaxConfig();
                 public static final SparkMaxConfig AlgaeWrist = new SparkMaxConfig();
@@ -236,11 +326,15 @@ public final class Constants {
                         
                         AlgaeWrist.smartCurrentLimit(50);
                         AlgaeWrist.idleMode(IdleMode.kBrake);
-                        AlgaeWrist.closedLoopRampRate(1.0);
+                        AlgaeWrist.openLoopRampRate(1.0); // The MAXMotion profile limits closed loop acceleration
 
                         AlgaeWrist.closedLoop.feedbackSensor(FeedbackSensor.kPrimaryEncoder);
-                        AlgaeWrist.closedLoop.pid(0.1, 0, 0);
+                        AlgaeWrist.closedLoop.pid(0.03, 0, 0);
                         AlgaeWrist.closedLoop.outputRange(-1, 1);
+                        AlgaeWrist.closedLoop.maxMotion
+                                .maxVelocity(kWristMaxVelocityRpm)
+                                .maxAcceleration(kWristMaxAccelerationRpmPerSecond)
+                                .allowedClosedLoopError(kWristPositionTolerance);
 
                 }
 
@@ -248,6 +342,39 @@ public final class Constants {
     
     
 
+        public static final class SuperstructureConstants {
+                // Elevator positions where the wrists would hit the elevator crossbars if they were unfolded, in motor rotations
+                public static final double kElevatorCollisionZoneLow = 60;
+                public static final double kElevatorCollisionZoneHigh = 120;
+
+                // Wrist positions that are tucked in far enough to pass through the zone, in motor rotations
+                public static final double kCoralWristSafe = 15;
+                public static final double kAlgaeWristSafe = 10;
+        }
+
+        public static final class CANConstants {
+                // Unchanged setpoints are still re-sent this often so a missed frame can't stick
+                public static final double kSetpointKeepAliveSeconds = 0.1;
+
+                // How close a new command has to be to the last one to be skipped
+                public static final double kDutyCycleTolerance = 0.002; // duty cycle
+                public static final double kDriveVelocityTolerance = 0.005; // meters per second
+                public static final double kTurningAngleTolerance = 0.002; // radians
+                public static final double kArbFeedforwardTolerance = 0.01; // volts
+                public static final double kPositionGoalTolerance = 0.01; // motor rotations
+                public static final double kVoltageTolerance = 0.01; // volts
+
+                // Fingerprints of the configs persisted to each Spark, kept in the roboRIO's working directory
+                public static final String kConfigFingerprintFile = "spark-configs.properties";
+        }
+
+        public static final class TelemetryConstants {
+                // Publish periods in robot loops (20 ms each)
+                public static final int kFast = 1; // 50 Hz
+                public static final int kNormal = 5; // 10 Hz
+                public static final int kSlow = 50; // 1 Hz
+        }
+
         public static final class OIConstants {
                 public static final int kDriverControllerPort = 0;
                 public static final double kDriveDeadband = 0.02;
@@ -268,16 +395,123 @@ public final class Constants {
                 // Constraint for the motion profiled robot angle controller
                 public static final TrapezoidProfile.Constraints kThetaControllerConstraints = new TrapezoidProfile.Constraints(
                 kMaxAngularSpeedRadiansPerSecond, kMaxAngularSpeedRadiansPerSecondSquared);
+
+                // Waypoint files in the deploy directory, one path per file, all generated at startup
+                public static final String kPathDirectory = "paths";
+                public static final String kLeaveToReefPath = "LeaveToReef";
+
+                // 2025 field size, for mirroring blue paths onto the red side
+                public static final double kFieldLengthMeters = 17.548;
+                public static final double kFieldWidthMeters = 8.052;
+
+                // Time allowed to line up on the reef tag after the path, and to wait for the elevator before scoring
+                public static final double kAlignTimeoutSeconds = 5.0;
+                public static final double kScoreWaitSeconds = 3.0;
+
+                // Branch of the reef face the preloaded coral goes on
+                public static final FieldTagIndex.Branch kScoringBranch = FieldTagIndex.Branch.LEFT;
+        }
+
+        public static final class ReefAlignConstants {
+                // Reef tags for each alliance, in face order
+                public static final int[] kBlueReefTags = {17, 18, 19, 20, 21, 22};
+                public static final int[] kRedReefTags = {6, 7, 8, 9, 10, 11};
+
+                // Scoring poses in front of a reef tag: distance from the tag face to the robot center,
+                // and how far the branches are to either side of the tag
+                public static final double kScoringDistanceMeters = 0.45;
+                public static final double kBranchOffsetMeters = Units.inchesToMeters(6.5);
+
+                // Profiled controllers on field X, Y and heading
+                public static final double kPTranslation = 2.5;
+                public static final double kPRotation = 3.0;
+                public static final TrapezoidProfile.Constraints kTranslationConstraints = new TrapezoidProfile.Constraints(1.5, 2.0);
+                public static final TrapezoidProfile.Constraints kRotationConstraints = new TrapezoidProfile.Constraints(Math.PI, 2 * Math.PI);
+
+                // Aligned once the robot is this close to the scoring pose
+                public static final double kTranslationToleranceMeters = 0.02;
+                public static final double kRotationToleranceRadians = Units.degreesToRadians(2.0);
+
+                // Frames older than this are not used to move the goal, and the robot turns at this rate until it sees a tag
+                public static final double kMaxTargetAgeSeconds = 0.25;
+                public static final double kSeekRotationRadiansPerSecond = 0.6;
         }
 
         public static final class NeoMotorConstants {
                 public static final double kFreeSpeedRpm = 5676;
         }
 
+        public static final class SimConstants {
+                // Physical estimates used only by the desktop simulation
+                public static final double kLoopPeriod = 0.02; // seconds, matches TimedRobot
+                public static final double kNotifierStep = 0.004; // seconds, lets the background threads run between loops
+
+                // MAXSwerve modules
+                public static final double kDriveMOI = 0.025; // kg m^2, reflected to the wheel
+                public static final double kTurningMotorReduction = 9424.0 / 203.0;
+                public static final double kTurningMOI = 0.004; // kg m^2
+
+                // Elevator, drum radius chosen so kHighestLevel rotations is about 1.4 m of travel
+                public static final double kElevatorGearing = 12.0;
+                public static final double kElevatorCarriageMassKg = 8.0;
+                public static final double kElevatorDrumRadiusMeters = 0.0109;
+                public static final double kElevatorMaxHeightMeters = 1.45;
+                public static final double kElevatorLimitHeightMeters = 0.005; // limit switch closes below this
+
+                // Wrists, positions are in motor rotations like the real encoders
+                public static final double kWristGearing = 125.0;
+                public static final double kWristMOI = 0.05; // kg m^2
+
+                // Simulated PhotonVision cameras, roughly an OV9281 at 960x720
+                public static final int kCameraWidth = 960;
+                public static final int kCameraHeight = 720;
+                public static final double kCameraDiagonalFovDegrees = 90.0;
+                public static final double kCameraFps = 30.0;
+                public static final double kCameraLatencyMs = 30.0;
+                public static final double kCameraLatencyStdDevMs = 5.0;
+        }
+
         public static final class PhotonVisionConstants {
                 public static final double kCameraHeight = 0.5; // Measured with a tape measure in meters
                 public static final double kReefAprilTagDistance = 0.25;
                 public static final double kReefAprilTagHeight = 0.2;
+
+                // Where each camera sits relative to the robot center, measure and update these on the robot
+                public static final Transform3d kRobotToCamera = new Transform3d(
+                        new Translation3d(0.30, 0.30, kCameraHeight),
+                        new Rotation3d(0, 0, 0));
+                public static final Transform3d kRobotToFrontRightCamera = new Transform3d(
+                        new Translation3d(0.30, -0.30, kCameraHeight),
+                        new Rotation3d(0, 0, 0));
+
+                // Every camera on the robot, each one is processed on its own thread
+                public static final VisionCamera.Config[] kCameras = {
+                        new VisionCamera.Config("FrontLeftCamera", kRobotToCamera),
+                        new VisionCamera.Config("FrontRightCamera", kRobotToFrontRightCamera)};
+
+                // Frames from different cameras this close together count as the same moment when merging
+                public static final double kMergeWindowSeconds = 0.02;
+
+                // Observation quality: targets more ambiguous or further away than these are rejected outright,
+                // single tag frames count for less than multi tag ones, and anything scoring below the minimum is dropped
+                public static final double kMaxAmbiguity = 0.2;
+                public static final double kMaxTagDistanceMeters = 4.0;
+                public static final double kFullQualityArea = 1.0; // percent of the image
+                public static final double kSingleTagWeight = 0.7;
+                public static final double kMinQuality = 0.1;
+
+                // Outlier rejection against the recent observations of each camera
+                public static final int kHistorySize = 8;
+                public static final double kHistorySeconds = 0.3;
+                public static final double kOutlierMeters = 0.3;
+                public static final int kMinHistory = 3;
+
+                // A target nothing has seen for this long is dropped
+                public static final double kTargetTimeoutSeconds = 0.5;
+
+                // Process camera frames on a dedicated thread instead of the main loop
+                public static final boolean kUseVisionThread = true;
+                public static final double kVisionThreadPeriod = 0.01; // seconds
         }
 
 }
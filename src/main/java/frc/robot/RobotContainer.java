@@ -0,0 +1,238 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot;
+
+import org.photonvision.EstimatedRobotPose;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.IntegerLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.XboxController;
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.Commands;
+import edu.wpi.first.wpilibj2.command.button.CommandXboxController;
+import frc.robot.Constants.AutoConstants;
+import frc.robot.Constants.OIConstants;
+import frc.robot.commands.AlignToReef;
+import frc.robot.commands.FollowTrajectory;
+import frc.robot.subsystems.AlgaeSubsystem;
+import frc.robot.subsystems.CoralSubsystem;
+import frc.robot.subsystems.DriveSubsystem;
+import frc.robot.subsystems.ElevatorSubsystem;
+import frc.robot.subsystems.Superstructure;
+import frc.robot.subsystems.VisionSubsystem;
+import frc.utils.CompiledTrajectory;
+import frc.utils.FieldTagIndex;
+import frc.utils.SparkConfigurator;
+import frc.utils.TimedCommand;
+import frc.utils.TimedSubsystem;
+import frc.utils.TrajectoryLibrary;
+
+/**
+ * Holds the subsystems, binds the controller to commands and builds the autonomous routine.
+ *
+ * <p>Every command is wrapped in a {@link TimedCommand}, so the scheduler only runs what is
+ * active and each command's execute time shows up under Commands/ in telemetry.
+ */
+public class RobotContainer {
+
+  // Subsystems, the scheduler runs their periodic methods in this order
+  private final DriveSubsystem swerveDrive = new DriveSubsystem();
+  private final ElevatorSubsystem elevator = new ElevatorSubsystem();
+  private final CoralSubsystem coral = new CoralSubsystem();
+  private final AlgaeSubsystem algae = new AlgaeSubsystem();
+  private final VisionSubsystem vision = new VisionSubsystem(swerveDrive::getOdometryPose, swerveDrive::getOdometryAt);
+  private final Superstructure superstructure = new Superstructure(elevator, coral, algae);
+
+  // Autonomous paths are loaded and generated here, before the match starts
+  private final TrajectoryLibrary paths = new TrajectoryLibrary();
+  private final Command autonomousCommand;
+
+  // Reef alignment, one for the driver and one for autonomous since a command can't be in both
+  private final AlignToReef alignToReef = new AlignToReef(swerveDrive, vision, FieldTagIndex.Branch.CENTER, "AlignToReef");
+  private final AlignToReef autoAlignToReef = new AlignToReef(swerveDrive, vision, AutoConstants.kScoringBranch, "AutoAlignToReef");
+
+  // Controller
+  private final CommandXboxController controller = new CommandXboxController(OIConstants.kDriverControllerPort);
+
+  // Driver settings, toggled by buttons
+  private boolean fieldRelative = true;
+  private boolean slowmode;
+
+  // On-robot log of the driver inputs, axes are [leftX, leftY, rightX, rightY, leftTrigger, rightTrigger]
+  private final DoubleArrayLogEntry controllerAxesLog;
+  private final IntegerLogEntry controllerButtonsLog;
+  private final IntegerLogEntry controllerPOVLog;
+  private final double[] controllerAxes = new double[6];
+
+  // New vision poses, filled in every loop
+  private final EstimatedRobotPose[] visionPoses = new EstimatedRobotPose[vision.getCameraCount()];
+
+  public RobotContainer() {
+    // The subsystems above started configuring their Sparks in parallel, wait for all of them
+    SparkConfigurator.awaitAll();
+
+    DataLog log = DataLogManager.getLog();
+    controllerAxesLog = new DoubleArrayLogEntry(log, "Controller/Axes");
+    controllerButtonsLog = new IntegerLogEntry(log, "Controller/Buttons");
+    controllerPOVLog = new IntegerLogEntry(log, "Controller/POV");
+
+    swerveDrive.setDefaultCommand(timed(swerveDrive.run(this::driveWithController).withName("DriveWithController")));
+    configureBindings();
+    autonomousCommand = buildAutonomousCommand();
+  }
+
+  private void configureBindings() {
+    // DPad Left - Select Coral Mode, DPad Right - Select Algae Mode
+    controller.povLeft().onTrue(timed(superstructure.runOnce(superstructure::selectCoralMode).withName("SelectCoralMode")));
+    controller.povRight().onTrue(timed(superstructure.runOnce(superstructure::selectAlgaeMode).withName("SelectAlgaeMode")));
+
+    // DPad Up and Down - Go up or down a level
+    controller.povUp().onTrue(timed(superstructure.runOnce(superstructure::levelUp).withName("LevelUp")));
+    controller.povDown().onTrue(timed(superstructure.runOnce(superstructure::levelDown).withName("LevelDown")));
+
+    // Y & A Buttons - manual control elevator Up and Down
+    controller.y().whileTrue(timed(elevator.runEnd(elevator::raise, elevator::stop).withName("ElevatorRaise")));
+    controller.a().whileTrue(timed(elevator.runEnd(elevator::lower, elevator::stop).withName("ElevatorLower")));
+
+    // Bumpers - manually control Algae Wrist, X and B - manually control Coral Wrist
+    // The wrists have no requirements of their own so they can be moved while the rollers run
+    controller.rightBumper().whileTrue(timed(Commands.runEnd(algae::wristraise, algae::wriststop).withName("AlgaeWristRaise")));
+    controller.leftBumper().whileTrue(timed(Commands.runEnd(algae::wristlower, algae::wriststop).withName("AlgaeWristLower")));
+    controller.x().whileTrue(timed(Commands.runEnd(coral::wristlower, coral::wriststop).withName("CoralWristLower")));
+    controller.b().whileTrue(timed(Commands.runEnd(coral::wristraise, coral::wriststop).withName("CoralWristRaise")));
+
+    // Triggers - control intake and outtake based on Mode
+    controller.rightTrigger(0.05).whileTrue(timed(Commands.either(
+        coral.runEnd(coral::outtake, coral::stop),
+        algae.runEnd(algae::outtake, algae::stop),
+        superstructure::isCoralMode).withName("Outtake")));
+    controller.leftTrigger(0.05).whileTrue(timed(Commands.either(
+        coral.runEnd(coral::intake, coral::stop),
+        algae.runEnd(algae::intake, algae::stop),
+        superstructure::isCoralMode).withName("Intake")));
+
+    // Press and release Right Stick Button to toggle slow mode
+    controller.rightStick().onTrue(Commands.runOnce(() -> slowmode = !slowmode));
+
+    // Back button - Zero Heading
+    controller.back().onTrue(Commands.runOnce(swerveDrive::zeroHeading));
+
+    // Start button - Toggles field relative
+    controller.start().onTrue(Commands.runOnce(() -> fieldRelative = !fieldRelative));
+
+    // Press and hold left stick button for auto alignment
+    controller.leftStick().whileTrue(timed(alignToReef));
+  }
+
+  // Get control values from the controller, apply speed limits and deadband, and send them to the swerve drive
+  private void driveWithController() {
+    double slowspeedlimit = slowmode ? 0.5 : 1.0;
+    double strafe = MathUtil.applyDeadband(controller.getLeftX() * OIConstants.kDriverSpeedLimit * elevator.getSpeedLimit() * slowspeedlimit, OIConstants.kDriveDeadband);
+    double forward = MathUtil.applyDeadband(-controller.getLeftY() * OIConstants.kDriverSpeedLimit * elevator.getSpeedLimit() * slowspeedlimit, OIConstants.kDriveDeadband);
+    double rotate = MathUtil.applyDeadband(controller.getRightX() * OIConstants.kDriverRotationLimit * slowspeedlimit, OIConstants.kDriveDeadband);
+    swerveDrive.drive(forward, strafe, rotate, fieldRelative, false);
+  }
+
+  private Command timed(Command command) {
+    return new TimedCommand(command);
+  }
+
+  /**
+   * Follows the leave path to the reef with the coral at L2, lines up on the reef tag, then
+   * scores once the superstructure is there. Holds still for the rest of autonomous.
+   */
+  private Command buildAutonomousCommand() {
+    Command score = Commands.sequence(
+        Commands.waitUntil(superstructure::atPose).withTimeout(AutoConstants.kScoreWaitSeconds),
+        coral.run(coral::outtake).withTimeout(0.5),
+        coral.runOnce(coral::stop));
+
+    return timed(Commands.sequence(
+        superstructure.runOnce(() -> superstructure.setPose(Superstructure.Pose.L2)),
+        // Start the odometry where the path starts for our alliance
+        swerveDrive.runOnce(() -> {
+          CompiledTrajectory path = paths.get(AutoConstants.kLeaveToReefPath);
+          if (path != null) {
+            swerveDrive.resetOdometry(path.getInitialPose()); }
+        }),
+        new FollowTrajectory(swerveDrive, paths, AutoConstants.kLeaveToReefPath),
+        // Finish lining up on the reef tag, rotating to find it if it isn't in view
+        autoAlignToReef.withTimeout(AutoConstants.kAlignTimeoutSeconds),
+        Commands.either(score, Commands.none(), autoAlignToReef::isAligned),
+        swerveDrive.run(() -> swerveDrive.drive(0.0, 0.0, 0.0, false, false)))
+        .withName("Autonomous"));
+  }
+
+  /** @return The autonomous routine, built once when the robot starts. */
+  public Command getAutonomousCommand() {
+    return autonomousCommand;
+  }
+
+  /** Runs the elevator feedforward characterization until it has fitted and saved the gains. */
+  public Command getCharacterizationCommand() {
+    return timed(elevator.startRun(elevator::startCharacterization, elevator::characterizationPeriodic)
+        .until(elevator::isCharacterizationDone)
+        .finallyDo(elevator::stop)
+        .withName("ElevatorCharacterization"));
+  }
+
+  /** @return The subsystems, in the order the scheduler runs their periodic methods. */
+  public TimedSubsystem[] getSubsystems() {
+    return new TimedSubsystem[] {swerveDrive, elevator, coral, algae, vision, superstructure};
+  }
+
+  public void autonomousInit() {
+    elevator.init();
+    algae.init();
+    coral.init();
+    superstructure.release();
+  }
+
+  public void teleopInit() {
+    elevator.init();
+    superstructure.release();
+    superstructure.resetMode();
+    fieldRelative = true;
+    slowmode = false;
+  }
+
+  public void robotInit() {
+    swerveDrive.zeroHeading();
+    swerveDrive.setPose(0, 0, 180);
+    elevator.init();
+    vision.init();
+  }
+
+  /** Folds the AprilTag poses from every camera into the drive's pose estimate, oldest first. */
+  public void fuseVision() {
+    int count = vision.pollNewPoses(visionPoses);
+    for (int i = 0; i < count; i++) {
+      swerveDrive.addVisionMeasurement(visionPoses[i].estimatedPose.toPose2d(), visionPoses[i].timestampSeconds); }
+  }
+
+  /** Records the driver inputs and the newest vision target. */
+  public void logInputs() {
+    XboxController hid = controller.getHID();
+    controllerAxes[0] = hid.getLeftX();
+    controllerAxes[1] = hid.getLeftY();
+    controllerAxes[2] = hid.getRightX();
+    controllerAxes[3] = hid.getRightY();
+    controllerAxes[4] = hid.getLeftTriggerAxis();
+    controllerAxes[5] = hid.getRightTriggerAxis();
+    controllerAxesLog.append(controllerAxes);
+    controllerButtonsLog.append(DriverStation.getStickButtons(OIConstants.kDriverControllerPort));
+    controllerPOVLog.append(hid.getPOV());
+    vision.log();
+  }
+
+  /** @return The fused pose of the robot. */
+  public Pose2d getPose() {
+    return swerveDrive.getPose();
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright (c) FIRST and other WPILib contributors.
+// Open Source Software; you can modify and/or share it under the terms of
+// the WPILib BSD license file in the root directory of this project.
+
+package frc.robot;
+
+import edu.wpi.first.hal.AllianceStationID;
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.wpilibj.simulation.DriverStationSim;
+import edu.wpi.first.wpilibj.simulation.SimHooks;
+import frc.robot.Constants.SimConstants;
+
+/**
+ * Runs the robot code against the simulated hardware as fast as the CPU allows.
+ *
+ * <p>Simulated time is paused and only moves when the harness steps it, so every loop sees
+ * exactly 20 ms pass no matter how long it took on the desktop. Run with
+ * {@code ./gradlew simulateMatch} for a full match or {@code ./gradlew simulateMatch -Pmode=auto}
+ * for just the 15 s autonomous period.
+ */
+public final class SimulationHarness {
+
+  private static final double kAutoSeconds = 15.0;
+  private static final double kTeleopSeconds = 135.0;
+
+  private SimulationHarness() {}
+
+  public static void main(String... args) {
+    boolean autoOnly = args.length > 0 && args[0].equals("auto");
+
+    if (!HAL.initialize(500, 0)) {
+      throw new IllegalStateException("Failed to initialize the simulated HAL");
+    }
+    SimHooks.pauseTiming();
+    DriverStationSim.setDsAttached(true);
+    DriverStationSim.setAllianceStationId(AllianceStationID.Blue1);
+    DriverStationSim.setEnabled(false);
+    DriverStationSim.notifyNewData();
+
+    Robot robot = new Robot();
+    robot.robotInit();
+    robot.simulationInit();
+
+    long startNanos = System.nanoTime();
+    int loops = 0;
+
+    // Autonomous
+    DriverStationSim.setAutonomous(true);
+    DriverStationSim.setEnabled(true);
+    loops += run(robot, kAutoSeconds);
+    Pose2d autoPose = robot.getPose();
+
+    // Teleop with the controller at rest
+    if (!autoOnly) {
+      DriverStationSim.setAutonomous(false);
+      loops += run(robot, kTeleopSeconds);
+    }
+
+    DriverStationSim.setEnabled(false);
+    DriverStationSim.notifyNewData();
+    robot.runLoopOnce();
+
+    double wallSeconds = (System.nanoTime() - startNanos) * 1e-9;
+    System.out.printf("Simulated %d loops (%.1f s) in %.3f s of wall time%n",
+        loops, loops * SimConstants.kLoopPeriod, wallSeconds);
+    System.out.println("Pose at end of auto: " + autoPose);
+    System.out.println("Pose at end: " + robot.getPose());
+
+    HAL.shutdown();
+    System.exit(0);
+  }
+
+  // Runs the robot for the given simulated time and returns the number of loops
+  private static int run(Robot robot, double seconds) {
+    int loops = (int) Math.round(seconds / SimConstants.kLoopPeriod);
+    int substeps = (int) Math.round(SimConstants.kLoopPeriod / SimConstants.kNotifierStep);
+    for (int i = 0; i < loops; i++) {
+      DriverStationSim.notifyNewData();
+      robot.runLoopOnce();
+      // Step in small pieces so the odometry and vision threads run as they would in real time
+      for (int j = 0; j < substeps; j++) {
+        SimHooks.stepTiming(SimConstants.kNotifierStep);
+      }
+    }
+    return loops;
+  }
+}
@@ -0,0 +1,153 @@
+package frc.robot.commands;
+
+import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.Command;
+import frc.robot.Constants.ReefAlignConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.robot.subsystems.DriveSubsystem;
+import frc.robot.subsystems.VisionResult;
+import frc.robot.subsystems.VisionSubsystem;
+import frc.utils.FieldTagIndex;
+import frc.utils.Telemetry;
+
+/**
+ * Drives to a branch of the reef face the cameras see, and finishes when the robot is there.
+ *
+ * <p>Every new frame turns the tag the cameras see into the scoring pose for that face from the
+ * {@link FieldTagIndex}, relative to the pose the drive had when the camera captured the frame, so
+ * the robot moving while the frame was in flight doesn't move the goal. Field X, Y and heading are
+ * then driven to that pose together with profiled controllers, so the robot keeps converging on odometry between frames
+ * and when the tag drops out of view. Until a tag is seen the robot turns in place to find one.
+ * How long each use ran is published under Align/&lt;name&gt;/Seconds and logged.
+ */
+public class AlignToReef extends Command {
+
+    private final DriveSubsystem drive;
+    private final VisionSubsystem vision;
+    private final FieldTagIndex tags;
+    private final FieldTagIndex.Branch branch;
+    private final Timer timer = new Timer();
+
+    private final ProfiledPIDController xController = new ProfiledPIDController(
+        ReefAlignConstants.kPTranslation, 0, 0, ReefAlignConstants.kTranslationConstraints);
+    private final ProfiledPIDController yController = new ProfiledPIDController(
+        ReefAlignConstants.kPTranslation, 0, 0, ReefAlignConstants.kTranslationConstraints);
+    private final ProfiledPIDController thetaController = new ProfiledPIDController(
+        ReefAlignConstants.kPRotation, 0, 0, ReefAlignConstants.kRotationConstraints);
+
+    private Pose2d goal;
+    private double lastFrameTimestamp;
+    private boolean aligned;
+    private double translationError;
+    private double rotationError;
+    private double lastAlignSeconds;
+    private final DoubleLogEntry alignTimeLog;
+
+    /**
+     * Aligns on the reef tag in view.
+     * @param drive The swerve drive.
+     * @param vision The cameras that see the reef tags.
+     * @param branch Which branch of the reef face to line up on.
+     * @param name The name of the command, its telemetry is published under Align/&lt;name&gt;.
+     */
+    public AlignToReef(DriveSubsystem drive, VisionSubsystem vision, FieldTagIndex.Branch branch, String name) {
+        this.drive = drive;
+        this.vision = vision;
+        this.tags = vision.getTagIndex();
+        this.branch = branch;
+        thetaController.enableContinuousInput(-Math.PI, Math.PI);
+
+        String topic = "Align/" + name;
+        alignTimeLog = new DoubleLogEntry(DataLogManager.getLog(), topic + "/Seconds");
+        Telemetry.addBoolean(topic + "/Aligned", () -> aligned, TelemetryConstants.kNormal);
+        Telemetry.addDouble(topic + "/TranslationError", () -> translationError, TelemetryConstants.kNormal);
+        Telemetry.addDouble(topic + "/RotationErrorDegrees", () -> Math.toDegrees(rotationError), TelemetryConstants.kNormal);
+        Telemetry.addDouble(topic + "/Seconds", () -> lastAlignSeconds, TelemetryConstants.kNormal);
+
+        setName(name);
+        addRequirements(drive);
+    }
+
+    @Override
+    public void initialize() {
+        Pose2d pose = drive.getPose();
+        xController.reset(pose.getX());
+        yController.reset(pose.getY());
+        thetaController.reset(pose.getRotation().getRadians());
+        goal = null;
+        // Frames from before the command started can set the goal too, as long as they are no older
+        // than kMaxTargetAgeSeconds, so a tag already in view is used straight away. The goal is
+        // built from the pose at each frame's capture time, so an older frame still gives the right goal.
+        lastFrameTimestamp = Timer.getFPGATimestamp() - ReefAlignConstants.kMaxTargetAgeSeconds;
+        aligned = false;
+        translationError = 0.0;
+        rotationError = 0.0;
+        timer.restart();
+    }
+
+    @Override
+    public void execute() {
+        Pose2d pose = drive.getPose();
+
+        VisionResult result = vision.getLatestResult();
+        boolean newFrame = false;
+        if (result.targetVisible && result.timestampSeconds > lastFrameTimestamp
+                && Timer.getFPGATimestamp() - result.timestampSeconds < ReefAlignConstants.kMaxTargetAgeSeconds) {
+            lastFrameTimestamp = result.timestampSeconds;
+            newFrame = true;
+            // Where the tag says the robot was, and from there the way to the precomputed scoring pose.
+            // Applying that move to the drive's own pose at the same moment keeps the goal right even if
+            // the drive's pose has drifted, and however far the robot has moved since the frame.
+            Pose2d seenFrom = tags.getTagPose(result.tagId).plus(result.robotToTag.inverse());
+            Pose2d capturedFrom = drive.getPoseAt(result.timestampSeconds);
+            if (capturedFrom == null) {
+                capturedFrom = pose;
+            }
+            goal = capturedFrom.plus(tags.getScoringPose(result.tagId, branch).minus(seenFrom));
+            xController.setGoal(goal.getX());
+            yController.setGoal(goal.getY());
+            thetaController.setGoal(goal.getRotation().getRadians());
+        }
+
+        if (goal == null) {
+            drive.driveRobotRelative(new ChassisSpeeds(0.0, 0.0, ReefAlignConstants.kSeekRotationRadiansPerSecond));
+            return;
+        }
+
+        double vx = xController.calculate(pose.getX()) + xController.getSetpoint().velocity;
+        double vy = yController.calculate(pose.getY()) + yController.getSetpoint().velocity;
+        double omega = thetaController.calculate(pose.getRotation().getRadians()) + thetaController.getSetpoint().velocity;
+        drive.driveRobotRelative(ChassisSpeeds.fromFieldRelativeSpeeds(vx, vy, omega, pose.getRotation()));
+        if (newFrame) {
+            vision.recordActuation(result);
+        }
+
+        translationError = pose.getTranslation().getDistance(goal.getTranslation());
+        rotationError = Math.abs(pose.getRotation().minus(goal.getRotation()).getRadians());
+        aligned = translationError < ReefAlignConstants.kTranslationToleranceMeters
+               && rotationError < ReefAlignConstants.kRotationToleranceRadians;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return aligned;
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        drive.driveRobotRelative(new ChassisSpeeds());
+        // Recorded whether or not it got there, Aligned tells which
+        lastAlignSeconds = timer.get();
+        alignTimeLog.append(lastAlignSeconds);
+    }
+
+    /** @return True if the last run of the command finished at the scoring pose. */
+    public boolean isAligned() {
+        return aligned;
+    }
+}
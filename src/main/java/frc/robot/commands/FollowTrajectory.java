@@ -0,0 +1,212 @@
+package frc.robot.commands;
+
+import java.util.Arrays;
+
+import edu.wpi.first.math.controller.HolonomicDriveController;
+import edu.wpi.first.math.controller.PIDController;
+import edu.wpi.first.math.controller.ProfiledPIDController;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj2.command.Command;
+import frc.robot.Constants.AutoConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.robot.subsystems.DriveSubsystem;
+import frc.utils.CompiledTrajectory;
+import frc.utils.Telemetry;
+import frc.utils.TrajectoryLibrary;
+
+/**
+ * Drives a path from the {@link TrajectoryLibrary} with a holonomic drive controller.
+ *
+ * <p>The path for the current alliance is picked when the command starts. While it runs, the
+ * distance between the robot and where the trajectory says it should be is published under
+ * Auto/&lt;path&gt;/TrackingError and logged; when it ends, how long it took and the largest and
+ * RMS tracking error are published for the whole path.
+ *
+ * <p>The same is kept for each segment between waypoints, so a problem can be pinned to the part of
+ * the path it happens on. When the trajectory passes a waypoint, that segment's planned seconds,
+ * largest and RMS error, and the error at the waypoint itself are published under
+ * Auto/&lt;path&gt;/Segment&lt;n&gt;/ and logged as arrays with one element per segment.
+ */
+public class FollowTrajectory extends Command {
+
+    private final DriveSubsystem drive;
+    private final TrajectoryLibrary library;
+    private final String pathName;
+    private final HolonomicDriveController controller;
+    private final Timer timer = new Timer();
+
+    private CompiledTrajectory path;
+    private final CompiledTrajectory.Sample goal = new CompiledTrajectory.Sample();
+
+    // Tracking error for the current run, and the results of the last one
+    private double trackingError;
+    private double maxError;
+    private double sumSquaredError;
+    private int samples;
+    private double seconds;
+    private double maxErrorResult;
+    private double rmsErrorResult;
+    private final DoubleLogEntry trackingErrorLog;
+    private final DoubleLogEntry secondsLog;
+
+    // The same per segment, filled in as the trajectory passes each waypoint
+    private int segment;
+    private double segmentMaxError;
+    private double segmentSumSquaredError;
+    private int segmentSamples;
+    private final double[] segmentSeconds;
+    private final double[] segmentMaxErrors;
+    private final double[] segmentRmsErrors;
+    private final double[] waypointErrors;
+    private final DoubleArrayLogEntry segmentSecondsLog;
+    private final DoubleArrayLogEntry segmentMaxErrorLog;
+    private final DoubleArrayLogEntry segmentRmsErrorLog;
+    private final DoubleArrayLogEntry waypointErrorLog;
+
+    /**
+     * Follows a path.
+     * @param drive The swerve drive.
+     * @param library The generated paths.
+     * @param pathName The file name of the path without .csv.
+     */
+    public FollowTrajectory(DriveSubsystem drive, TrajectoryLibrary library, String pathName) {
+        this.drive = drive;
+        this.library = library;
+        this.pathName = pathName;
+
+        ProfiledPIDController thetaController = new ProfiledPIDController(
+            AutoConstants.kPThetaController, 0, 0, AutoConstants.kThetaControllerConstraints);
+        thetaController.enableContinuousInput(-Math.PI, Math.PI);
+        controller = new HolonomicDriveController(
+            new PIDController(AutoConstants.kPXController, 0, 0),
+            new PIDController(AutoConstants.kPYController, 0, 0),
+            thetaController);
+
+        String topic = "Auto/" + pathName;
+        DataLog log = DataLogManager.getLog();
+        trackingErrorLog = new DoubleLogEntry(log, topic + "/TrackingError");
+        secondsLog = new DoubleLogEntry(log, topic + "/Seconds");
+        Telemetry.addDouble(topic + "/TrackingError", () -> trackingError, TelemetryConstants.kNormal);
+        Telemetry.addDouble(topic + "/Seconds", () -> seconds, TelemetryConstants.kNormal);
+        Telemetry.addDouble(topic + "/PlannedSeconds", () -> path == null ? 0.0 : path.getTotalTimeSeconds(), TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "/MaxErrorMeters", () -> maxErrorResult, TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "/RmsErrorMeters", () -> rmsErrorResult, TelemetryConstants.kSlow);
+
+        // Both alliances' paths come from the same waypoints, so either one gives the segment count
+        CompiledTrajectory anyPath = library.get(pathName);
+        int segments = anyPath == null ? 0 : anyPath.getSegmentCount();
+        segmentSeconds = new double[segments];
+        segmentMaxErrors = new double[segments];
+        segmentRmsErrors = new double[segments];
+        waypointErrors = new double[segments];
+        segmentSecondsLog = new DoubleArrayLogEntry(log, topic + "/SegmentSeconds");
+        segmentMaxErrorLog = new DoubleArrayLogEntry(log, topic + "/SegmentMaxErrorMeters");
+        segmentRmsErrorLog = new DoubleArrayLogEntry(log, topic + "/SegmentRmsErrorMeters");
+        waypointErrorLog = new DoubleArrayLogEntry(log, topic + "/WaypointErrorMeters");
+        for (int i = 0; i < segments; i++) {
+            int index = i;
+            String segmentTopic = topic + "/Segment" + (i + 1);
+            Telemetry.addDouble(segmentTopic + "/PlannedSeconds", () -> segmentSeconds[index], TelemetryConstants.kSlow);
+            Telemetry.addDouble(segmentTopic + "/MaxErrorMeters", () -> segmentMaxErrors[index], TelemetryConstants.kSlow);
+            Telemetry.addDouble(segmentTopic + "/RmsErrorMeters", () -> segmentRmsErrors[index], TelemetryConstants.kSlow);
+            Telemetry.addDouble(segmentTopic + "/WaypointErrorMeters", () -> waypointErrors[index], TelemetryConstants.kSlow);
+        }
+
+        setName("FollowTrajectory(" + pathName + ")");
+        addRequirements(drive);
+    }
+
+    @Override
+    public void initialize() {
+        path = library.get(pathName);
+        if (path == null) {
+            DriverStation.reportError("No path named " + pathName, false);
+            return;
+        }
+        Pose2d pose = drive.getPose();
+        controller.getThetaController().reset(pose.getRotation().getRadians());
+        trackingError = 0.0;
+        maxError = 0.0;
+        sumSquaredError = 0.0;
+        samples = 0;
+        segment = 0;
+        segmentMaxError = 0.0;
+        segmentSumSquaredError = 0.0;
+        segmentSamples = 0;
+        Arrays.fill(segmentSeconds, 0.0);
+        Arrays.fill(segmentMaxErrors, 0.0);
+        Arrays.fill(segmentRmsErrors, 0.0);
+        Arrays.fill(waypointErrors, 0.0);
+        timer.restart();
+    }
+
+    @Override
+    public void execute() {
+        if (path == null) return;
+
+        Pose2d pose = drive.getPose();
+        double time = timer.get();
+        path.sample(time, goal);
+        Pose2d goalPose = new Pose2d(goal.x, goal.y, new Rotation2d(goal.thetaRadians));
+        ChassisSpeeds speeds = controller.calculate(pose, goalPose, goal.velocityMetersPerSecond, path.getEndHeading());
+        drive.driveRobotRelative(speeds);
+
+        trackingError = Math.hypot(pose.getX() - goal.x, pose.getY() - goal.y);
+        maxError = Math.max(maxError, trackingError);
+        sumSquaredError += trackingError * trackingError;
+        samples++;
+        trackingErrorLog.append(trackingError);
+
+        segmentMaxError = Math.max(segmentMaxError, trackingError);
+        segmentSumSquaredError += trackingError * trackingError;
+        segmentSamples++;
+        // A slow loop can pass more than one waypoint at once, the skipped segments get this sample
+        while (segment < segmentSeconds.length - 1 && time >= path.getWaypointTime(segment + 1)) {
+            endSegment();
+        }
+    }
+
+    // Records the segment the trajectory just finished, ending at the latest sample
+    private void endSegment() {
+        segmentSeconds[segment] = path.getWaypointTime(segment + 1) - path.getWaypointTime(segment);
+        segmentMaxErrors[segment] = segmentMaxError;
+        segmentRmsErrors[segment] = segmentSamples == 0 ? 0.0 : Math.sqrt(segmentSumSquaredError / segmentSamples);
+        waypointErrors[segment] = trackingError;
+        segment++;
+        segmentMaxError = trackingError;
+        segmentSumSquaredError = trackingError * trackingError;
+        segmentSamples = 1;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return path == null || timer.hasElapsed(path.getTotalTimeSeconds());
+    }
+
+    @Override
+    public void end(boolean interrupted) {
+        drive.driveRobotRelative(new ChassisSpeeds());
+        if (path == null) return;
+        seconds = timer.get();
+        maxErrorResult = maxError;
+        rmsErrorResult = samples == 0 ? 0.0 : Math.sqrt(sumSquaredError / samples);
+        secondsLog.append(seconds);
+
+        // The last segment ends with the path, or wherever the command was interrupted
+        if (segment < segmentSeconds.length) {
+            endSegment();
+        }
+        segmentSecondsLog.append(segmentSeconds);
+        segmentMaxErrorLog.append(segmentMaxErrors);
+        segmentRmsErrorLog.append(segmentRmsErrors);
+        waypointErrorLog.append(waypointErrors);
+    }
+}
@@ -1,93 +1,142 @@
 package frc.robot.subsystems;
 import frc.robot.Constants.AlgaeConstants;
-import frc.utils.Common;
-// import edu.wpi.first.networktables.NetworkTableEntry;
-import edu.wpi.first.wpilibj2.command.SubsystemBase;
-import com.revrobotics.RelativeEncoder;
+import frc.robot.Constants.NeoMotorConstants;
+import frc.robot.Constants.SimConstants;
+import frc.robot.Constants.CANConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.utils.GamePieceIntake;
+import frc.utils.PositionMechanism;
+import frc.utils.SparkConfigurator;
+import frc.utils.SparkSetpointWriter;
+import frc.utils.Telemetry;
+import frc.utils.TimedSubsystem;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.system.plant.LinearSystemId;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.simulation.DCMotorSim;
+import com.revrobotics.sim.SparkMaxSim;
 import com.revrobotics.spark.SparkMax;
-import com.revrobotics.spark.SparkBase.PersistMode;
-import com.revrobotics.spark.SparkBase.ResetMode;
 import com.revrobotics.spark.SparkLowLevel.MotorType;
-// import edu.wpi.first.networktables.NetworkTable;
-// import edu.wpi.first.networktables.NetworkTableInstance;
 
 
-public class AlgaeSubsystem extends SubsystemBase{
+public class AlgaeSubsystem extends TimedSubsystem{
 
     private final SparkMax m_AlgaeLeftSpark; 
     private final SparkMax m_AlgaeRightSpark;
     private final SparkMax m_AlgaeWristSpark; 
-    private RelativeEncoder encoder;
-    public double currentposition;
+    private final SparkSetpointWriter m_AlgaeOutput;
+    private final PositionMechanism m_AlgaeWrist;
+    private final GamePieceIntake m_AlgaeIntake;
+    private double currentposition;
     private double desiredposition;
-    // private NetworkTableEntry NTAlgaePosition;
-    public boolean manualcontrol;
-    private double previousp;
+    private boolean manualcontrol;
+
+    // Simulation models, only created when running on the desktop
+    private SparkMaxSim rollerSim;
+    private SparkMaxSim wristSim;
+    private DCMotorSim wristPhysics;
+
+    // On-robot log entries
+    private final DoubleLogEntry wristPositionLog;
+    private final DoubleLogEntry wristOutputLog;
+    private final DoubleLogEntry rollerOutputLog;
+    private final DoubleLogEntry rollerCurrentLog;
 
     public AlgaeSubsystem(){
 
         // Algae Intake 
         m_AlgaeLeftSpark = new SparkMax(AlgaeConstants.kAlgaeLeadCanID, MotorType.kBrushless);
-        m_AlgaeLeftSpark.configure(AlgaeConstants.AlgaeLead, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+        SparkConfigurator.configure(m_AlgaeLeftSpark, AlgaeConstants.AlgaeLead);
         AlgaeConstants.AlgaeFollow.follow(m_AlgaeLeftSpark, true);
         m_AlgaeRightSpark = new SparkMax(AlgaeConstants.kAlgaeFollowCanID, MotorType.kBrushless);
-        m_AlgaeRightSpark.configure(AlgaeConstants.AlgaeFollow, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+        SparkConfigurator.configure(m_AlgaeRightSpark, AlgaeConstants.AlgaeFollow);
 
         // Algae Wrist         
         m_AlgaeWristSpark = new SparkMax(AlgaeConstants.kAlgaeWristCanID, MotorType.kBrushless);   
-        m_AlgaeWristSpark.configure(AlgaeConstants.AlgaeWrist, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+        SparkConfigurator.configure(m_AlgaeWristSpark, AlgaeConstants.AlgaeWrist);
     
-        // Algae Encoder
-        encoder = m_AlgaeWristSpark.getEncoder();
-
-        // Initialize NetworkTable variables
-        // NetworkTable Table = NetworkTableInstance.getDefault().getTable("Algae");
-        // NTAlgaePosition = Table.getEntry("WristPosition"); 
+        // Only send duty cycles that changed
+        m_AlgaeOutput = new SparkSetpointWriter("Algae", m_AlgaeLeftSpark, CANConstants.kDutyCycleTolerance);
+
+        // Stops the rollers when an algae is in
+        m_AlgaeIntake = new GamePieceIntake("Algae", m_AlgaeLeftSpark, m_AlgaeOutput, AlgaeConstants.kIntakeTuning);
+
+        // Wrist moves run as MAXMotion profiles on the SparkMax
+        m_AlgaeWrist = new PositionMechanism("AlgaeWrist", m_AlgaeWristSpark, AlgaeConstants.kWristPositionTolerance);
+
+        if (RobotBase.isSimulation()) {
+            DCMotor neo = DCMotor.getNEO(1);
+            rollerSim = new SparkMaxSim(m_AlgaeLeftSpark, neo);
+            wristSim = new SparkMaxSim(m_AlgaeWristSpark, neo);
+            wristPhysics = new DCMotorSim(
+                LinearSystemId.createDCMotorSystem(neo, SimConstants.kWristMOI, SimConstants.kWristGearing), neo);}
+
+        // Log algae inputs and outputs every loop
+        DataLog log = DataLogManager.getLog();
+        wristPositionLog = new DoubleLogEntry(log, "Algae/WristPosition");
+        wristOutputLog = new DoubleLogEntry(log, "Algae/WristAppliedOutput");
+        rollerOutputLog = new DoubleLogEntry(log, "Algae/RollerAppliedOutput");
+        rollerCurrentLog = new DoubleLogEntry(log, "Algae/RollerCurrent");
+
+        // Publish algae wrist position
+        Telemetry.addDouble("Algae/WristPosition", () -> currentposition, TelemetryConstants.kNormal);
         }
 
-    public void robotPeriodic() {
-        currentposition = encoder.getPosition();
-        // NTAlgaePosition.setDouble(currentposition);
+    @Override
+    protected void timedPeriodic() {
+        m_AlgaeWrist.periodic();
+        currentposition = m_AlgaeWrist.getPosition();
+        m_AlgaeIntake.periodic();
+
+        wristPositionLog.append(currentposition);
+        wristOutputLog.append(m_AlgaeWristSpark.getAppliedOutput());
+        rollerOutputLog.append(m_AlgaeLeftSpark.getAppliedOutput());
+        rollerCurrentLog.append(m_AlgaeLeftSpark.getOutputCurrent());
         }
 
-    public void teleopPeriodic(boolean AlgaeMode, int elevatorlevel) {
-        if (!manualcontrol && AlgaeMode) { 
-            // Algae Mode Elevator Levels are 0-Stow, 1-GroundIntake, 2-AlgaeProcessor, 3-L2, 4-L3, 5-Max
-            // Algae Wrist Levels are 0-Stowed, 1-Unfolded, 2-Aim for Barge
-            if (elevatorlevel == 0)
-                goToPosition(AlgaeConstants.algaewristlevels[0]); // Stow
-            else if (elevatorlevel == 5)
-                goToPosition(AlgaeConstants.algaewristlevels[2]); // Shoot at Barge
-            else
-                goToPosition(AlgaeConstants.algaewristlevels[1]);} // AlgaeIntake
-        //else if (!AlgaeMode) {
-          //  goToPosition(AlgaeConstants.algaewristlevels[0]);} // Stow
-          } 
-            
+    @Override
+    public void simulationPeriodic() {
+        double vbus = RobotController.getBatteryVoltage();
+        // Rollers just spin at their share of free speed
+        rollerSim.iterate(rollerSim.getAppliedOutput() * NeoMotorConstants.kFreeSpeedRpm, vbus, SimConstants.kLoopPeriod);
+
+        // Wrist encoder counts motor rotations, so scale the arm speed back up through the gearbox
+        wristPhysics.setInputVoltage(wristSim.getAppliedOutput() * vbus);
+        wristPhysics.update(SimConstants.kLoopPeriod);
+        double rpm = wristPhysics.getAngularVelocityRPM() * SimConstants.kWristGearing;
+        wristSim.iterate(rpm, vbus, SimConstants.kLoopPeriod);
+    }
 
     public void intake() {
-        m_AlgaeLeftSpark.set(AlgaeConstants.kAlgaeSpeed);}
+        m_AlgaeIntake.intake();}
 
     public void stop() {
-        m_AlgaeLeftSpark.stopMotor();}
+        m_AlgaeIntake.stop();}
+
+    public boolean hasAlgae() {
+        return m_AlgaeIntake.hasPiece();}
 
     public void outtake() {        
-        m_AlgaeLeftSpark.set(-AlgaeConstants.kAlgaeSpeed);}
+        m_AlgaeIntake.eject(-AlgaeConstants.kAlgaeSpeed);}
 
     public void wristraise() {
         manualcontrol = true;
-        m_AlgaeWristSpark.set(-AlgaeConstants.kAlgaeWristSpeed);
+        m_AlgaeWrist.set(-AlgaeConstants.kAlgaeWristSpeed);
         desiredposition = currentposition;
     }
 
     public void wriststop() {
         goToPosition(desiredposition);
-        //m_AlgaeWristSpark.stopMotor();
+        //m_AlgaeWristOutput.stopMotor();
     }
 
     public void wristlower() {         
         manualcontrol = true;
-        m_AlgaeWristSpark.set(AlgaeConstants.kAlgaeWristSpeed);
+        m_AlgaeWrist.set(AlgaeConstants.kAlgaeWristSpeed);
         desiredposition = currentposition;
     }
 
@@ -98,19 +147,26 @@ public class AlgaeSubsystem extends SubsystemBase{
         goToPosition(AlgaeConstants.algaewristlevels[1]);}
 
     public void init() {
-        encoder.setPosition(0);}
+        m_AlgaeWrist.resetPosition(0);}
     
     private void goToPosition(double targetposition) {
-        currentposition = encoder.getPosition();
-        double error = (targetposition - currentposition) / Math.max(Math.abs(targetposition), 1.0);  
-        error = Common.clamp(error, -1.0, 1.0, 0.01);
-        double p = error * 0.15;  // PID - This is proportional
-        double d = (p - previousp) * 0.0;
-        double speed = p + d; 
-        if (Math.abs(targetposition - currentposition) < 0.5) {  // If close enough to target, stop, otherwise set speed
-            previousp = 0; 
-            m_AlgaeWristSpark.stopMotor();        }
-        else {
-            previousp = p;
-            m_AlgaeWristSpark.set(speed);}}
+        m_AlgaeWrist.setGoal(targetposition);}
+
+    public void goToWristPosition(double targetposition) {
+        goToPosition(targetposition);}
+
+    public double getWristPosition() {
+        return currentposition;}
+
+    /** @return True while the driver is moving the algae wrist by hand, the superstructure leaves it alone until the next pose. */
+    public boolean inManualControl() {
+        return manualcontrol;}
+
+    public void endManualControl() {
+        manualcontrol = false;}
+
+    /** @return True if the wrist is holding within tolerance of the position it was sent to. */
+    public boolean wristAtGoal() {
+        return m_AlgaeWrist.atGoal();}
+
 }
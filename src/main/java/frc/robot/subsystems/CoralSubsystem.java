@@ -1,79 +1,142 @@
 package frc.robot.subsystems;
+import frc.robot.Constants.CANConstants;
 import frc.robot.Constants.CoralConstants;
-import frc.utils.Common;
-import edu.wpi.first.wpilibj2.command.SubsystemBase;
-import com.revrobotics.RelativeEncoder;
+import frc.robot.Constants.NeoMotorConstants;
+import frc.robot.Constants.SimConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.utils.GamePieceIntake;
+import frc.utils.PositionMechanism;
+import frc.utils.SparkConfigurator;
+import frc.utils.SparkSetpointWriter;
+import frc.utils.Telemetry;
+import frc.utils.TimedSubsystem;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.system.plant.LinearSystemId;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.simulation.DCMotorSim;
+import com.revrobotics.sim.SparkMaxSim;
 import com.revrobotics.spark.SparkMax;
-import com.revrobotics.spark.SparkBase.PersistMode;
-import com.revrobotics.spark.SparkBase.ResetMode;
 import com.revrobotics.spark.SparkLowLevel.MotorType;
 
 
 
-public class CoralSubsystem extends SubsystemBase{
+public class CoralSubsystem extends TimedSubsystem{
 
     private final SparkMax m_CoralLeftSpark; 
     private final SparkMax m_CoralWristSpark; 
+    private final SparkSetpointWriter m_CoralOutput;
+    private final PositionMechanism m_CoralWrist;
+    private final GamePieceIntake m_CoralIntake;
     
-    private RelativeEncoder encoder;
-    //private NetworkTableEntry NTCoralPosition;
-    public double currentposition;
-    public boolean manualcontrol;
-    private double previousp;
+    private double currentposition;
+    private boolean manualcontrol;
     private boolean L4Scoring;
+    private boolean L4Flicking;
     private double desiredposition;
 
+    // Simulation models, only created when running on the desktop
+    private SparkMaxSim rollerSim;
+    private SparkMaxSim wristSim;
+    private DCMotorSim wristPhysics;
+
+    // On-robot log entries
+    private final DoubleLogEntry wristPositionLog;
+    private final DoubleLogEntry wristOutputLog;
+    private final DoubleLogEntry rollerOutputLog;
+    private final DoubleLogEntry rollerCurrentLog;
+
     public CoralSubsystem(){
 
         // Coral Motor 
         m_CoralLeftSpark = new SparkMax(CoralConstants.kCoralCanID, MotorType.kBrushless);
-        m_CoralLeftSpark.configure(CoralConstants.coral, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+        SparkConfigurator.configure(m_CoralLeftSpark, CoralConstants.coral);
 
         // Wrist Motor         
         m_CoralWristSpark = new SparkMax(CoralConstants.kWristCanID, MotorType.kBrushless);   
-        m_CoralWristSpark.configure(CoralConstants.wrist, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);        
+        SparkConfigurator.configure(m_CoralWristSpark, CoralConstants.wrist);        
+
+        // Only send duty cycles that changed
+        m_CoralOutput = new SparkSetpointWriter("Coral", m_CoralLeftSpark, CANConstants.kDutyCycleTolerance);
+
+        // Stops the rollers when a coral is in
+        m_CoralIntake = new GamePieceIntake("Coral", m_CoralLeftSpark, m_CoralOutput, CoralConstants.kIntakeTuning);
+
+        // Wrist moves run as MAXMotion profiles on the SparkMax
+        m_CoralWrist = new PositionMechanism("CoralWrist", m_CoralWristSpark, CoralConstants.kWristPositionTolerance);
+
+        if (RobotBase.isSimulation()) {
+            DCMotor neo = DCMotor.getNEO(1);
+            rollerSim = new SparkMaxSim(m_CoralLeftSpark, neo);
+            wristSim = new SparkMaxSim(m_CoralWristSpark, neo);
+            wristPhysics = new DCMotorSim(
+                LinearSystemId.createDCMotorSystem(neo, SimConstants.kWristMOI, SimConstants.kWristGearing), neo);}
+
+        // Log coral inputs and outputs every loop
+        DataLog log = DataLogManager.getLog();
+        wristPositionLog = new DoubleLogEntry(log, "Coral/WristPosition");
+        wristOutputLog = new DoubleLogEntry(log, "Coral/WristAppliedOutput");
+        rollerOutputLog = new DoubleLogEntry(log, "Coral/RollerAppliedOutput");
+        rollerCurrentLog = new DoubleLogEntry(log, "Coral/RollerCurrent");
+
+        // Publish coral wrist position
+        Telemetry.addDouble("Coral/WristPosition", () -> currentposition, TelemetryConstants.kNormal);
+    }
+
+    @Override
+    protected void timedPeriodic() {
+        m_CoralWrist.periodic();
+        currentposition = m_CoralWrist.getPosition();
+        m_CoralIntake.periodic();
 
-        // Coral Encoder
-        encoder = m_CoralWristSpark.getEncoder();
+        wristPositionLog.append(currentposition);
+        wristOutputLog.append(m_CoralWristSpark.getAppliedOutput());
+        rollerOutputLog.append(m_CoralLeftSpark.getAppliedOutput());
+        rollerCurrentLog.append(m_CoralLeftSpark.getOutputCurrent());
     }
 
-    public void robotPeriodic() {
-        currentposition = encoder.getPosition();
+    @Override
+    public void simulationPeriodic() {
+        double vbus = RobotController.getBatteryVoltage();
+        // Rollers just spin at their share of free speed
+        rollerSim.iterate(rollerSim.getAppliedOutput() * NeoMotorConstants.kFreeSpeedRpm, vbus, SimConstants.kLoopPeriod);
+
+        // Wrist encoder counts motor rotations, so scale the arm speed back up through the gearbox
+        wristPhysics.setInputVoltage(wristSim.getAppliedOutput() * vbus);
+        wristPhysics.update(SimConstants.kLoopPeriod);
+        double rpm = wristPhysics.getAngularVelocityRPM() * SimConstants.kWristGearing;
+        wristSim.iterate(rpm, vbus, SimConstants.kLoopPeriod);
     }
 
-    public void teleopPeriodic(boolean CoralMode, int elevatorlevel) {
-        if (!manualcontrol && CoralMode) {
-            L4Scoring = false;
-            // Coral Mode Elevator Levels are 0-Stow, 1-CoralIntake, 2-L1, 3-L2, 4-L3, 5-L4
-            // Coral Wrist Levels are 0-Stow, 1-CoralIntake, 2-L1-3Score, 3-L4Score
-            if (elevatorlevel == 0){
-                goToPosition(CoralConstants.coralwristlevels[0]);} // Stow
-            else if (elevatorlevel == 1){
-                goToPosition(CoralConstants.coralwristlevels[1]);} // CoralIntake
-            else if (elevatorlevel == 5){
-                L4Scoring = true;
-                goToPosition(CoralConstants.coralwristlevels[3]);} // L4 Score
-            else {
-                goToPosition(CoralConstants.coralwristlevels[2]);}} // L1-L3 Score
-    } 
-        
-    public void autonomousPeriodic() {
-        goToPosition(CoralConstants.coralwristlevels[2]);}
-         
     public void intake() {
-        m_CoralLeftSpark.set(-CoralConstants.kCoralSpeed);}
+        m_CoralIntake.intake();}
 
     public void stop() {
-        m_CoralLeftSpark.stopMotor();}
+        L4Flicking = false;
+        m_CoralIntake.stop();}
+
+    public boolean hasCoral() {
+        return m_CoralIntake.hasPiece();}
 
     public void outtake() { 
-        m_CoralLeftSpark.set(CoralConstants.kCoralSpeed);
+        m_CoralIntake.eject(CoralConstants.kCoralSpeed);
         if (L4Scoring){
+            L4Flicking = true;
             goToPosition(14);}} // On an L4 Score, shoot while lifting the wrist from 30 to 14 to help knock it on there
 
+    public void setL4Scoring(boolean l4scoring) {
+        L4Scoring = l4scoring;}
+
+    /** @return True while the wrist is lifting during an L4 shot, so nothing else should move it. */
+    public boolean isL4Flicking() {
+        return L4Flicking;}
+
     public void wristraise() {  
         manualcontrol = true;
-        m_CoralWristSpark.set(-CoralConstants.kCoralWristSpeed);
+        m_CoralWrist.set(-CoralConstants.kCoralWristSpeed);
         desiredposition = currentposition;}
 
     public void wriststop() {       
@@ -81,7 +144,7 @@ public class CoralSubsystem extends SubsystemBase{
 
     public void wristlower() {                
         manualcontrol = true;
-        m_CoralWristSpark.set(CoralConstants.kCoralWristSpeed);
+        m_CoralWrist.set(CoralConstants.kCoralWristSpeed);
         desiredposition = currentposition;}
 
     public void fold() {
@@ -108,21 +171,27 @@ public class CoralSubsystem extends SubsystemBase{
         goToPosition(CoralConstants.coralwristlevels[1]);} // CoralIntake   
 
     public void init() {
-        encoder.setPosition(0);
+        m_CoralWrist.resetPosition(0);
         desiredposition = 0;}
 
     private void goToPosition(double targetposition) {
-        currentposition = encoder.getPosition();
-        double error = (targetposition - currentposition) / Math.max(Math.abs(targetposition), 1.0);   
-        error = Common.clamp(error, -1.0, 1.0, 0.01);
-        double p = error * 0.3;  // PID - This is proportional
-        double d = (p - previousp) * 0.05;
-        double speed = p + d; 
-        if (Math.abs(targetposition - currentposition) < 0.5) {  // If close enough to target, stop, otherwise set speed
-            previousp = 0; 
-            m_CoralWristSpark.stopMotor();        }
-        else {
-            previousp = p;
-            m_CoralWristSpark.set(speed);}}
+        m_CoralWrist.setGoal(targetposition);}
+
+    public void goToWristPosition(double targetposition) {
+        goToPosition(targetposition);}
+
+    public double getWristPosition() {
+        return currentposition;}
+
+    /** @return True while the driver is moving the coral wrist by hand, the superstructure leaves it alone until the next pose. */
+    public boolean inManualControl() {
+        return manualcontrol;}
+
+    public void endManualControl() {
+        manualcontrol = false;}
+
+    /** @return True if the wrist is holding within tolerance of the position it was sent to. */
+    public boolean wristAtGoal() {
+        return m_CoralWrist.atGoal();}
 
 }
@@ -12,18 +12,28 @@ import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
 import edu.wpi.first.math.kinematics.SwerveDriveOdometry;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
-import edu.wpi.first.networktables.NetworkTable;
-import edu.wpi.first.networktables.NetworkTableEntry;
-import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.util.WPIUtilJNI;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.hal.SimDouble;
+import edu.wpi.first.hal.simulation.SimDeviceDataJNI;
+import edu.wpi.first.wpilibj.RobotBase;
 import edu.wpi.first.wpilibj.SPI;
+import edu.wpi.first.wpilibj.Timer;
 import frc.robot.Constants.DriveConstants;
+import frc.robot.Constants.SimConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.utils.FastSwerveKinematics;
+import frc.utils.FusedPoseEstimator;
 import frc.utils.SwerveUtils;
-import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import frc.utils.Telemetry;
+import frc.utils.TimedSubsystem;
 import com.kauailabs.navx.frc.AHRS;
 
 
-public class DriveSubsystem extends SubsystemBase {
+public class DriveSubsystem extends TimedSubsystem {
   // Create MAXSwerveModules
   private final MAXSwerveModule m_frontLeft = new MAXSwerveModule(
       DriveConstants.kFrontLeftDrivingCanId,
@@ -45,8 +55,19 @@ public class DriveSubsystem extends SubsystemBase {
       DriveConstants.kRearRightTurningCanId,
       DriveConstants.kBackRightChassisAngularOffset);
 
-  // Create AHRS 
-  private final AHRS m_gyro = new AHRS(SPI.Port.kMXP);
+  // All four modules in kinematics order
+  private final MAXSwerveModule[] m_modules = {m_frontLeft, m_frontRight, m_rearLeft, m_rearRight};
+
+  // Kinematics for the drive methods, on primitives so they don't allocate every loop
+  private final FastSwerveKinematics m_kinematics =
+      new FastSwerveKinematics(DriveConstants.kWheelBase, DriveConstants.kTrackWidth);
+
+  // Create AHRS, updating as fast as the odometry sampler reads it
+  private final AHRS m_gyro = new AHRS(SPI.Port.kMXP, DriveConstants.kGyroUpdateRateHz);
+
+  // Simulated NavX yaw, in the NavX's own clockwise positive degrees
+  private SimDouble m_simYaw;
+  private double m_simYawDegrees;
 
   // Slew rate filter variables for controlling lateral acceleration
   private double m_currentRotation = 0.0;
@@ -57,67 +78,145 @@ public class DriveSubsystem extends SubsystemBase {
   private SlewRateLimiter m_rotLimiter = new SlewRateLimiter(DriveConstants.kRotationalSlewRate);
   private double m_prevTime = WPIUtilJNI.now() * 1e-6;
 
-  // NetworkTable Entries for Position
-  private NetworkTableEntry PoseX;
-  private NetworkTableEntry PoseY;
-  private NetworkTableEntry PoseZ;
+  // Module positions, allocated once and refreshed in place every loop
+  private final SwerveModulePosition[] m_modulePositions = new SwerveModulePosition[] {
+      new SwerveModulePosition(),
+      new SwerveModulePosition(),
+      new SwerveModulePosition(),
+      new SwerveModulePosition()
+  };
+
+  // Optional fast sampler for the encoders and gyro, drained into the odometry every loop
+  private OdometrySampler m_odometrySampler;
 
   // Odometry class for tracking robot pose
   SwerveDriveOdometry m_odometry = new SwerveDriveOdometry(
       DriveConstants.kDriveKinematics,
       getRotation2d(),
-      new SwerveModulePosition[] {
-          m_frontLeft.getPosition(),
-          m_frontRight.getPosition(),
-          m_rearLeft.getPosition(),
-          m_rearRight.getPosition()
-      });
-
-  private Pose2d currentPose = new Pose2d();
+      updateModulePositions());
+
+  // Fuses the odometry above with vision poses, correcting for camera latency
+  private final FusedPoseEstimator m_poseEstimator = new FusedPoseEstimator(
+      DriveConstants.kPoseHistorySize,
+      DriveConstants.kOdometryTranslationStdDev,
+      DriveConstants.kOdometryRotationStdDev,
+      DriveConstants.kVisionTranslationStdDev,
+      DriveConstants.kVisionRotationStdDev);
       
+  // On-robot log of drive inputs and outputs, the arrays are reused every loop
+  private final DoubleArrayLogEntry m_measuredStatesLog;
+  private final DoubleArrayLogEntry m_desiredStatesLog;
+  private final DoubleArrayLogEntry m_poseLog;
+  private final DoubleLogEntry m_gyroLog;
+  private final double[] m_measuredStates = new double[8];
+  private final double[] m_desiredStates = new double[8];
+  private final double[] m_poseValues = new double[3];
+
   /** Creates a new DriveSubsystem. */
   public DriveSubsystem() {
-    // Initialize NetworkTable variables
-    NetworkTable PoseTable = NetworkTableInstance.getDefault().getTable("Pose");
-    PoseX = PoseTable.getEntry("X");
-    PoseY = PoseTable.getEntry("Y");
-    PoseZ = PoseTable.getEntry("Z");
+    // Publish position in feet and current heading for the dashboard
+    // positive X value represents distance traveled forward, positive Y value represents distance traveled to the right
+    Telemetry.addDouble("Pose/X", () -> toRoundedFeet(m_poseEstimator.getX()), TelemetryConstants.kNormal);
+    Telemetry.addDouble("Pose/Y", () -> toRoundedFeet(-m_poseEstimator.getY()), TelemetryConstants.kNormal);
+    Telemetry.addDouble("Pose/Z", () -> m_gyro.getAngle() % 360, TelemetryConstants.kNormal);
+
+    // Full field pose and module states for AdvantageScope style viewers
+    Telemetry.addStruct("Drive/Pose", Pose2d.struct, this::getPose, TelemetryConstants.kNormal);
+    Telemetry.addStructArray("Drive/ModuleStates", SwerveModuleState.struct, this::getModuleStates,
+        TelemetryConstants.kNormal);
+
+    // Log module states as [speed, angle] pairs in kinematics order, and the pose as [x, y, theta]
+    DataLog log = DataLogManager.getLog();
+    m_measuredStatesLog = new DoubleArrayLogEntry(log, "Drive/MeasuredStates");
+    m_desiredStatesLog = new DoubleArrayLogEntry(log, "Drive/DesiredStates");
+    m_poseLog = new DoubleArrayLogEntry(log, "Drive/Pose");
+    m_gyroLog = new DoubleLogEntry(log, "Drive/GyroAngle");
+
+    if (RobotBase.isSimulation()) {
+      int navx = SimDeviceDataJNI.getSimDeviceHandle("navX-Sensor[" + SPI.Port.kMXP.value + "]");
+      if (navx != 0) {
+        m_simYaw = new SimDouble(SimDeviceDataJNI.getSimValueHandle(navx, "Yaw"));
+      }
+    }
+
+    if (DriveConstants.kUseOdometrySampler) {
+      m_odometrySampler = new OdometrySampler(
+          m_modules,
+          m_gyro,
+          DriveConstants.kOdometrySamplerCapacity);
+      m_odometrySampler.start(DriveConstants.kOdometrySamplerPeriod);
+    }
   }
 
   @Override
-  public void periodic() {
-    // Update the odometry in the periodic block
-    m_odometry.update(
-        getRotation2d(),
-        new SwerveModulePosition[] {
-            m_frontLeft.getPosition(),
-            m_frontRight.getPosition(),
-            m_rearLeft.getPosition(),
-            m_rearRight.getPosition()
-        });
-    
-    // Get the current pose
-    currentPose = m_odometry.getPoseMeters();
-
-    // Convert X and Y values to feet and round 
-    // positive X value represents distance traveled forward
-    double forward = currentPose.getX();  
-    forward = forward * DriveConstants.kUnitstoFeet; // Convert to feet
-    forward = Math.round(forward * 100) / 100D; // Round
-
-    // positive Y value represents distance traveled to the left  
-    double side = -currentPose.getY();  // Make left negative
-    side = side * DriveConstants.kUnitstoFeet; // Convert to feet
-    side = Math.round(side * 100) / 100D; // Round
-
-    // Publish position and current heading to NetworkTables
-    PoseX.setDouble(forward);
-    PoseY.setDouble(side);
-    // PoseZ.setDouble(currentPose.getRotation().getDegrees());
-    double currentangle = m_gyro.getAngle() % 360;
-    PoseZ.setDouble(currentangle);
+  protected void timedPeriodic() {
+    if (m_odometrySampler != null) {
+      // Integrate every sample taken since the last loop, in order
+      while (m_odometrySampler.poll(m_modulePositions)) {
+        m_odometry.update(Rotation2d.fromDegrees(-m_odometrySampler.getGyroAngle()), m_modulePositions);
+        recordOdometry(m_odometrySampler.getTimestamp());
+      }
+    } else {
+      // Update the odometry in the periodic block
+      m_odometry.update(getRotation2d(), updateModulePositions());
+      recordOdometry(Timer.getFPGATimestamp());
+    }
 
-    
+    logState();
+  }
+
+  @Override
+  public void simulationPeriodic() {
+    for (MAXSwerveModule module : m_modules) {
+      module.simulationPeriodic(SimConstants.kLoopPeriod);
+    }
+
+    // Turn the gyro by however far the simulated modules rotated the chassis
+    if (m_simYaw != null) {
+      double omega = DriveConstants.kDriveKinematics.toChassisSpeeds(getModuleStates()).omegaRadiansPerSecond;
+      m_simYawDegrees -= Math.toDegrees(omega * SimConstants.kLoopPeriod);
+      m_simYaw.set(Math.IEEEremainder(m_simYawDegrees, 360));
+    }
+  }
+
+  /** Appends this loop's drive inputs and outputs to the on-robot log. */
+  private void logState() {
+    for (int i = 0; i < m_modules.length; i++) {
+      m_measuredStates[2 * i] = m_modules[i].getDriveVelocity();
+      m_measuredStates[2 * i + 1] = m_modules[i].getTurningAngleRadians();
+      m_desiredStates[2 * i] = m_modules[i].getDesiredSpeed();
+      m_desiredStates[2 * i + 1] = m_modules[i].getDesiredAngleRadians();
+    }
+    m_measuredStatesLog.append(m_measuredStates);
+    m_desiredStatesLog.append(m_desiredStates);
+
+    m_poseValues[0] = m_poseEstimator.getX();
+    m_poseValues[1] = m_poseEstimator.getY();
+    m_poseValues[2] = m_poseEstimator.getTheta();
+    m_poseLog.append(m_poseValues);
+    m_gyroLog.append(m_gyro.getAngle());
+  }
+
+  /**
+   * Converts a distance in meters to feet, rounded to two decimal places for the dashboard.
+   *
+   * @param meters The distance in meters.
+   * @return The distance in feet.
+   */
+  private static double toRoundedFeet(double meters) {
+    double feet = meters * DriveConstants.kUnitstoFeet; // Convert to feet
+    return Math.round(feet * 100) / 100D; // Round
+  }
+
+  /**
+   * Records the odometry pose so late vision measurements can be lined up with it.
+   *
+   * @param timestampSeconds When the odometry inputs were sampled.
+   */
+  private void recordOdometry(double timestampSeconds) {
+    Pose2d odometryPose = m_odometry.getPoseMeters();
+    m_poseEstimator.addOdometry(timestampSeconds,
+        odometryPose.getX(), odometryPose.getY(), odometryPose.getRotation().getRadians());
   }
 
   /**
@@ -126,24 +225,75 @@ public class DriveSubsystem extends SubsystemBase {
    * @return The pose.
    */
   public Pose2d getPose() {
+    return m_poseEstimator.getPose();
+  }
+
+  /**
+   * Returns the estimated pose of the robot at a past time, in the same frame as {@link #getPose()}.
+   *
+   * @param timestampSeconds The time, in the FPGA time base.
+   * @return The pose, or null if the time is older than the pose history.
+   */
+  public Pose2d getPoseAt(double timestampSeconds) {
+    return m_poseEstimator.getPoseAt(timestampSeconds);
+  }
+
+  /**
+   * Looks up the pose from the wheel odometry and gyro alone at a past time. Safe to call from the
+   * camera threads.
+   *
+   * @param timestampSeconds The time, in the FPGA time base.
+   * @param pose Filled in with the odometry x and y in meters and heading in radians.
+   * @return False if the time is older than the pose history.
+   */
+  public boolean getOdometryAt(double timestampSeconds, double[] pose) {
+    return m_poseEstimator.getOdometryAt(timestampSeconds, pose);
+  }
+
+  /**
+   * Returns the pose from the wheel odometry and gyro alone, without vision.
+   *
+   * @return The pose.
+   */
+  public Pose2d getOdometryPose() {
     return m_odometry.getPoseMeters();
   }
 
+  /**
+   * Adds a vision pose measurement to the pose estimate.
+   *
+   * @param visionPose The robot pose on the field as seen by the camera.
+   * @param timestampSeconds The time the frame was captured, in the FPGA time base.
+   */
+  public void addVisionMeasurement(Pose2d visionPose, double timestampSeconds) {
+    m_poseEstimator.addVisionMeasurement(timestampSeconds,
+        visionPose.getX(), visionPose.getY(), visionPose.getRotation().getRadians());
+  }
+
   /**
    * Resets the odometry to the specified pose.
    *
    * @param pose The pose to which to set the odometry.
    */
   public void resetOdometry(Pose2d pose) {
-    m_odometry.resetPosition(
-        getRotation2d(),
-        new SwerveModulePosition[] {
-            m_frontLeft.getPosition(),
-            m_frontRight.getPosition(),
-            m_rearLeft.getPosition(),
-            m_rearRight.getPosition()
-        },
-        pose);
+    if (m_odometrySampler != null) {
+      m_odometrySampler.clear();
+    }
+    m_odometry.resetPosition(getRotation2d(), updateModulePositions(), pose);
+    m_poseEstimator.reset(Timer.getFPGATimestamp(), pose.getX(), pose.getY(), pose.getRotation().getRadians());
+  }
+
+  /**
+   * Refreshes the shared module position array from the modules without allocating a new one.
+   *
+   * @return The module positions, in kinematics order.
+   */
+  private SwerveModulePosition[] updateModulePositions() {
+    m_frontLeft.updatePosition(m_modulePositions[0]);
+    m_frontRight.updatePosition(m_modulePositions[1]);
+    m_rearLeft.updatePosition(m_modulePositions[2]);
+    m_rearRight.updatePosition(m_modulePositions[3]);
+    return m_modulePositions;
   }
 
   /**
@@ -243,19 +393,30 @@ public class DriveSubsystem extends SubsystemBase {
     double rotDelivered = m_currentRotation * DriveConstants.kMaxAngularSpeed;
     double currentangle = -m_gyro.getAngle() % 360;
 
-    var swerveModuleStates = DriveConstants.kDriveKinematics.toSwerveModuleStates(
-        fieldRelative
-            ? ChassisSpeeds.fromFieldRelativeSpeeds(forwardDelivered, strafeDelivered, rotDelivered, Rotation2d.fromDegrees(currentangle))
-            : new ChassisSpeeds(forwardDelivered, strafeDelivered, rotDelivered));
+    if (fieldRelative) {
+      m_kinematics.toModuleStatesFieldRelative(forwardDelivered, strafeDelivered, rotDelivered, Math.toRadians(currentangle));
+    } else {
+      m_kinematics.toModuleStates(forwardDelivered, strafeDelivered, rotDelivered);
+    }
+    applyModuleStates();
+  }
 
-    SwerveDriveKinematics.desaturateWheelSpeeds(
-        swerveModuleStates, DriveConstants.kMaxSpeedMetersPerSecond);
-    
-    m_frontLeft.setDesiredState(swerveModuleStates[0]);
-    m_frontRight.setDesiredState(swerveModuleStates[1]);
-    m_rearLeft.setDesiredState(swerveModuleStates[2]);
-    m_rearRight.setDesiredState(swerveModuleStates[3]);
-  
+  /**
+   * Drives at the given robot-relative speeds, for path following.
+   *
+   * @param speeds The chassis speeds in meters and radians per second.
+   */
+  public void driveRobotRelative(ChassisSpeeds speeds) {
+    m_kinematics.toModuleStates(speeds.vxMetersPerSecond, speeds.vyMetersPerSecond, speeds.omegaRadiansPerSecond);
+    applyModuleStates();
+  }
+
+  /** Desaturates the module states from the kinematics and sends them to the modules. */
+  private void applyModuleStates() {
+    m_kinematics.desaturate(DriveConstants.kMaxSpeedMetersPerSecond);
+    for (int i = 0; i < m_modules.length; i++) {
+      m_modules[i].setDesiredState(m_kinematics.getSpeed(i), m_kinematics.getCos(i), m_kinematics.getSin(i));
+    }
   }
 
   /**
@@ -268,6 +429,20 @@ public class DriveSubsystem extends SubsystemBase {
     m_rearRight.setDesiredState(new SwerveModuleState(0, Rotation2d.fromDegrees(45)));
   }
 
+  /**
+   * Returns the measured states of the swerve modules.
+   *
+   * @return The module states, in kinematics order.
+   */
+  public SwerveModuleState[] getModuleStates() {
+    return new SwerveModuleState[] {
+        m_frontLeft.getState(),
+        m_frontRight.getState(),
+        m_rearLeft.getState(),
+        m_rearRight.getState()
+    };
+  }
+
   /**
    * Sets the swerve ModuleStates.
    *
@@ -2,57 +2,103 @@ package frc.robot.subsystems;
 
 import frc.robot.Constants;
 import frc.robot.Constants.ElevatorConstants;
+import frc.robot.Constants.SimConstants;
+import frc.robot.Constants.TelemetryConstants;
 import frc.utils.Common;
-// import edu.wpi.first.networktables.NetworkTable;
-// import edu.wpi.first.networktables.NetworkTableEntry;
-// import edu.wpi.first.networktables.NetworkTableInstance;
+import frc.utils.FeedforwardFitter;
+import frc.utils.PositionMechanism;
+import frc.utils.SparkConfigurator;
+import frc.utils.Telemetry;
+import frc.utils.TimedSubsystem;
+import edu.wpi.first.util.datalog.BooleanLogEntry;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import edu.wpi.first.math.controller.ElevatorFeedforward;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.wpilibj.Filesystem;
 import edu.wpi.first.wpilibj.DigitalInput;
-import edu.wpi.first.wpilibj2.command.SubsystemBase;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.simulation.DIOSim;
+import edu.wpi.first.wpilibj.simulation.ElevatorSim;
 import edu.wpi.first.wpilibj.smartdashboard.*;
 import com.revrobotics.RelativeEncoder;
+import com.revrobotics.sim.SparkFlexSim;
 import com.revrobotics.spark.SparkFlex;
 import com.revrobotics.spark.SparkBase.PersistMode;
 import com.revrobotics.spark.SparkBase.ResetMode;
 import com.revrobotics.spark.SparkLowLevel.MotorType;
 
-public class ElevatorSubsystem extends SubsystemBase{
+public class ElevatorSubsystem extends TimedSubsystem{
 
     private final SparkFlex m_ElevatorLeftSpark; 
     private final SparkFlex m_ElevatorRightSpark;
+    private final PositionMechanism m_ElevatorMechanism;
     private RelativeEncoder encoder;
-    // private NetworkTableEntry NTElevatorPosition;
-    // private NetworkTableEntry NTElevatorLevel;
     
     
     private double currentspeed;
     private double currentposition;
-    public double elevatorspeedlimiter;
+    private double elevatorspeedlimiter;
     private DigitalInput ElevatorLimitSwitch;
     private boolean isLimitPressed;
     private boolean wasLimitPressedLastTime;    
     private double speed;
-    private double previousp;
-    public int level;
-    public boolean manualcontrol;
-    private double kPUp;
-    private double kPDown;
-    private double kDUp;
-    private double kDDown;
-    private double p;
-    private double d;
+    private boolean manualcontrol;
+
+    // Feedforward loaded from the deploy directory, all zero until the elevator has been characterized
+    private ElevatorFeedforward feedforward;
+
+    // Characterization routine, run from test mode
+    private enum CharacterizationStep { QUASISTATIC_UP, REST_AFTER_QUASISTATIC_UP, QUASISTATIC_DOWN, REST_AFTER_QUASISTATIC_DOWN,
+                                        DYNAMIC_UP, REST_AFTER_DYNAMIC_UP, DYNAMIC_DOWN, DONE }
+    private CharacterizationStep characterizationstep;
+    private double stepstarttime;
+    private FeedforwardFitter fitter;
+
+    // Simulation models, only created when running on the desktop
+    private SparkFlexSim elevatorSim;
+    private ElevatorSim elevatorPhysics;
+    private DIOSim limitSwitchSim;
+    private double metersPerRotation;
+
+    // On-robot log entries
+    private final DoubleLogEntry positionLog;
+    private final DoubleLogEntry outputLog;
+    private final BooleanLogEntry limitLog;
+    private final DoubleArrayLogEntry feedforwardLog;
 
 
 
     public ElevatorSubsystem(){
 
+        // Velocity feedforward runs on the SparkFlex along with the MAXMotion profile
+        feedforward = loadFeedforward();
+        ElevatorConstants.leadConfig.closedLoop.velocityFF(velocityFFFor(feedforward));
+
         // Left Elevator Motor 
         m_ElevatorLeftSpark = new SparkFlex(ElevatorConstants.kElevatorLeftCanId, MotorType.kBrushless);
-        m_ElevatorLeftSpark.configure(ElevatorConstants.leadConfig, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+        SparkConfigurator.configure(m_ElevatorLeftSpark, ElevatorConstants.leadConfig);
+
+        // Level moves run as MAXMotion profiles on the SparkFlex
+        m_ElevatorMechanism = new PositionMechanism("Elevator", m_ElevatorLeftSpark, ElevatorConstants.kPositionTolerance);
 
         // Right Elevator Motor  
         ElevatorConstants.followConfig.follow(m_ElevatorLeftSpark, true);       
         m_ElevatorRightSpark = new SparkFlex(ElevatorConstants.kElevatorRightCanId, MotorType.kBrushless);   
-        m_ElevatorRightSpark.configure(ElevatorConstants.followConfig, ResetMode.kResetSafeParameters, PersistMode.kPersistParameters);
+        SparkConfigurator.configure(m_ElevatorRightSpark, ElevatorConstants.followConfig);
     
         // Elevator Encoder
         encoder = m_ElevatorLeftSpark.getEncoder();
@@ -60,14 +106,35 @@ public class ElevatorSubsystem extends SubsystemBase{
         // Elevator Limit Switch returns true when open, false when closed
         ElevatorLimitSwitch = new DigitalInput(0);
 
-        // Initialize NetworkTable variables
-        // NetworkTable ElevatorTable = NetworkTableInstance.getDefault().getTable("Elevator");
-        // NTElevatorPosition = ElevatorTable.getEntry("Position");
-        // NTElevatorLevel = ElevatorTable.getEntry("Level");
+        if (RobotBase.isSimulation()) {
+            // Both Vortexes drive the carriage, the follower just mirrors the leader's output
+            DCMotor motors = DCMotor.getNeoVortex(2);
+            elevatorSim = new SparkFlexSim(m_ElevatorLeftSpark, motors);
+            elevatorPhysics = new ElevatorSim(motors, SimConstants.kElevatorGearing, SimConstants.kElevatorCarriageMassKg,
+                SimConstants.kElevatorDrumRadiusMeters, 0.0, SimConstants.kElevatorMaxHeightMeters, true, 0.0);
+            limitSwitchSim = new DIOSim(ElevatorLimitSwitch);
+            metersPerRotation = 2 * Math.PI * SimConstants.kElevatorDrumRadiusMeters / SimConstants.kElevatorGearing;}
+
+        // Log elevator inputs and outputs every loop
+        DataLog log = DataLogManager.getLog();
+        positionLog = new DoubleLogEntry(log, "Elevator/Position");
+        outputLog = new DoubleLogEntry(log, "Elevator/AppliedOutput");
+        limitLog = new BooleanLogEntry(log, "Elevator/LimitPressed");
+
+        // Feedforward gains in use as [kS, kG, kV, kA], logged at startup and after every characterization
+        feedforwardLog = new DoubleArrayLogEntry(log, "Elevator/Feedforward");
+        feedforwardLog.append(new double[] {feedforward.getKs(), feedforward.getKg(), feedforward.getKv(), feedforward.getKa()});
+
+        // Publish elevator state
+        Telemetry.addDouble("Elevator/Position", () -> currentposition, TelemetryConstants.kNormal);
+        Telemetry.addBoolean("Elevator/LimitPressed", () -> isLimitPressed, TelemetryConstants.kNormal);
+        Telemetry.addInteger("Elevator/CharacterizationStep", () -> characterizationstep == null ? -1 : characterizationstep.ordinal(), TelemetryConstants.kSlow);
+        Telemetry.addDouble("Elevator/kS", () -> feedforward.getKs(), TelemetryConstants.kSlow);
+        Telemetry.addDouble("Elevator/kG", () -> feedforward.getKg(), TelemetryConstants.kSlow);
+        Telemetry.addDouble("Elevator/kV", () -> feedforward.getKv(), TelemetryConstants.kSlow);
+        Telemetry.addDouble("Elevator/kA", () -> feedforward.getKa(), TelemetryConstants.kSlow);
         
         wasLimitPressedLastTime = false;
-        level = 0;
-        previousp = 0;
     }
 
     public void init() {
@@ -87,48 +154,51 @@ public class ElevatorSubsystem extends SubsystemBase{
     private double scaledSpeedToBottom() {
         return -ElevatorConstants.kElevatorSpeed * Math.min(100, currentposition)/100; }
 
-    public void robotPeriodic() {
-        currentposition = encoder.getPosition(); 
-        // NTElevatorPosition.setDouble(currentposition);
-        // NTElevatorLevel.setInteger(level);
+    @Override
+    protected void timedPeriodic() {
+        m_ElevatorMechanism.periodic();
+        currentposition = m_ElevatorMechanism.getPosition(); 
        
         // Reset encoder position to zero when limit switch is triggered (but don't do it over and over again)
         isLimitPressed = !ElevatorLimitSwitch.get();
         if (isLimitPressed && !wasLimitPressedLastTime) {
-            encoder.setPosition(0.00);}
+            m_ElevatorMechanism.resetPosition(0.00);}
         wasLimitPressedLastTime = isLimitPressed;
         // Speed limiter used to limit swerve drive speed based on elevator height to prevent tipping with a higher center of gravity
-        elevatorspeedlimiter = (Constants.ElevatorConstants.kHighestLevel + 70 - currentposition) / ( Constants.ElevatorConstants.kHighestLevel + 70); }
+        elevatorspeedlimiter = (Constants.ElevatorConstants.kHighestLevel + 70 - currentposition) / ( Constants.ElevatorConstants.kHighestLevel + 70); 
 
-    public void teleopPeriodic(boolean coralmode) {
-        if (!manualcontrol) {
-            if (coralmode) goToCoralLevel(level); 
-            else goToAlgaeLevel(level);}
-        else {
-            previousp = 0;}}
+        positionLog.append(currentposition);
+        outputLog.append(m_ElevatorLeftSpark.getAppliedOutput());
+        limitLog.append(isLimitPressed); }
 
-    public void autonomousPeriodic(){
-        goToCoralLevel(level);
-    }
+    @Override
+    public void simulationPeriodic() {
+        double vbus = RobotController.getBatteryVoltage();
+        elevatorPhysics.setInputVoltage(elevatorSim.getAppliedOutput() * vbus);
+        elevatorPhysics.update(SimConstants.kLoopPeriod);
+        double rpm = elevatorPhysics.getVelocityMetersPerSecond() / metersPerRotation * 60;
+        elevatorSim.iterate(rpm, vbus, SimConstants.kLoopPeriod);
+        // Limit switch reads true when open, false when closed
+        limitSwitchSim.setValue(elevatorPhysics.getPositionMeters() > SimConstants.kElevatorLimitHeightMeters); }
 
     public void raise() {
         manualcontrol = true;
         if (currentposition < ElevatorConstants.kHighestLevel) {
             currentspeed = scaledSpeedToTop();
-            m_ElevatorLeftSpark.set(currentspeed);}
+            m_ElevatorMechanism.set(currentspeed);}
         else {
-            m_ElevatorLeftSpark.stopMotor();}}
+            m_ElevatorMechanism.stopMotor();}}
 
     public void lower() {        
         manualcontrol = true;
         if (currentposition > ElevatorConstants.kLowestLevel) {
             currentspeed = scaledSpeedToBottom();
-            m_ElevatorLeftSpark.set(currentspeed);}
+            m_ElevatorMechanism.set(currentspeed);}
         else {
-            m_ElevatorLeftSpark.stopMotor();}}
+            m_ElevatorMechanism.stopMotor();}}
 
     public void stop() {
-        m_ElevatorLeftSpark.stopMotor(); }
+        m_ElevatorMechanism.stopMotor(); }
 
     public void goToCoralLevel(int level) {
         level = Common.clamp(level, 0, 5);
@@ -140,27 +210,134 @@ public class ElevatorSubsystem extends SubsystemBase{
         level = Common.clamp(level, 0, 5);
         goToPosition(ElevatorConstants.algaelevels[level]);}
 
+    // Hands the move to the SparkFlex, which runs a trapezoidal MAXMotion profile on its 1 kHz position loop
     private void goToPosition(double targetposition) {
-        kPUp = 1.0;
-        kDUp = 0.1;
-        kPDown = 0.3;
-        kDDown = 0.1;
+        // Gravity and static friction are added as an arbitrary feedforward, in the direction of travel
+        double arbff = feedforward.getKg() + feedforward.getKs() * Math.signum(targetposition - currentposition);
+        m_ElevatorMechanism.setGoal(targetposition, arbff);}
+
+    public void goToHeight(double targetposition) {
+        goToPosition(targetposition);}
+
+    public double getPosition() {
+        return currentposition;}
+
+    /** @return The fraction of full drive speed that is safe at the current elevator height. */
+    public double getSpeedLimit() {
+        return elevatorspeedlimiter;}
+
+    /** @return True while the driver is moving the elevator by hand, the superstructure leaves it alone until the next pose. */
+    public boolean inManualControl() {
+        return manualcontrol;}
+
+    public void endManualControl() {
+        manualcontrol = false;}
+
+    /** @return True if the elevator is holding within tolerance of the level it was sent to. */
+    public boolean atGoal() {
+        return m_ElevatorMechanism.atGoal();}
+
+    // Converts kV in volts per rotation per second to the SparkFlex's duty cycle per RPM
+    private static double velocityFFFor(ElevatorFeedforward ff) {
+        return ff.getKv() / 60.0 / 12.0; }
+
+    private static ElevatorFeedforward loadFeedforward() {
+        Properties gains = new Properties();
+        File file = new File(Filesystem.getDeployDirectory(), ElevatorConstants.kFeedforwardFile);
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                gains.load(in);}
+            catch (IOException e) {
+                DriverStation.reportWarning("Could not read elevator feedforward: " + e.getMessage(), false);}}
+        return new ElevatorFeedforward(
+            Double.parseDouble(gains.getProperty("kS", "0")),
+            Double.parseDouble(gains.getProperty("kG", "0")),
+            Double.parseDouble(gains.getProperty("kV", "0")),
+            Double.parseDouble(gains.getProperty("kA", "0")));}
+
+    private static void saveFeedforward(ElevatorFeedforward ff, int samples) {
+        Properties gains = new Properties();
+        gains.setProperty("kS", Double.toString(ff.getKs()));
+        gains.setProperty("kG", Double.toString(ff.getKg()));
+        gains.setProperty("kV", Double.toString(ff.getKv()));
+        gains.setProperty("kA", Double.toString(ff.getKa()));
+        File file = new File(Filesystem.getDeployDirectory(), ElevatorConstants.kFeedforwardFile);
+        try (OutputStream out = new FileOutputStream(file)) {
+            gains.store(out, "Elevator feedforward, volts and motor rotations, fitted from " + samples + " samples");}
+        catch (IOException e) {
+            DriverStation.reportError("Could not save elevator feedforward: " + e.getMessage(), false);}}
+
+    /** Starts the elevator characterization. Run it in test mode with the robot on blocks and nothing above the elevator. */
+    public void startCharacterization() {
+        manualcontrol = true;
+        fitter = new FeedforwardFitter(ElevatorConstants.kCharacterizationMinVelocity);
+        startStep(CharacterizationStep.QUASISTATIC_UP); }
+
+    /** @return True once the characterization has finished, or if it was never started. */
+    public boolean isCharacterizationDone() {
+        return characterizationstep == null || characterizationstep == CharacterizationStep.DONE; }
+
+    /** Runs one loop of the characterization. Quasistatic ramps and dynamic steps, up and down, then fits and saves the gains. */
+    public void characterizationPeriodic() {
+        if (characterizationstep == null || characterizationstep == CharacterizationStep.DONE) return;
+
+        double now = Timer.getFPGATimestamp();
+        double elapsed = now - stepstarttime;
         currentposition = encoder.getPosition();
-        double error = (targetposition - currentposition) / Math.max(Math.abs(targetposition), 1.0);  
-        error = Common.clamp(error, -1.0, 1.0, 0.01);
-        if (error > 0) {
-            p = error * kPUp;
-            d = (p - previousp) * kDUp;}  
-        else {
-            p = error * kPDown;
-            d = (p - previousp) * kDDown;}  
-        speed = p + d; 
-        if (Math.abs(targetposition - currentposition) < 0.5) {  // If close enough to target, stop, otherwise set speed
-            previousp = 0; 
-            m_ElevatorLeftSpark.stopMotor();}
-        else {
-            previousp = p;
-            m_ElevatorLeftSpark.set(speed);}}
+        double volts = 0;
+        boolean finished;
+        switch (characterizationstep) {
+            case QUASISTATIC_UP:
+                volts = Math.min(ElevatorConstants.kQuasistaticRampVoltsPerSecond * elapsed, ElevatorConstants.kCharacterizationMaxVolts);
+                finished = currentposition > ElevatorConstants.kCharacterizationUpperLimit;
+                break;
+            case QUASISTATIC_DOWN:
+                volts = -Math.min(ElevatorConstants.kQuasistaticRampVoltsPerSecond * elapsed, ElevatorConstants.kCharacterizationMaxVolts);
+                finished = currentposition < ElevatorConstants.kCharacterizationLowerLimit || isLimitPressed;
+                break;
+            case DYNAMIC_UP:
+                volts = ElevatorConstants.kDynamicStepVolts;
+                finished = currentposition > ElevatorConstants.kCharacterizationUpperLimit;
+                break;
+            case DYNAMIC_DOWN:
+                // Gravity helps on the way down, so use a gentler step
+                volts = -ElevatorConstants.kDynamicStepVolts / 2;
+                finished = currentposition < ElevatorConstants.kCharacterizationLowerLimit || isLimitPressed;
+                break;
+            default: // rest steps
+                finished = elapsed > ElevatorConstants.kCharacterizationRestSeconds;
+                break;}
+
+        if (finished) {
+            m_ElevatorMechanism.setVoltage(0);
+            startStep(CharacterizationStep.values()[characterizationstep.ordinal() + 1]);
+            if (characterizationstep == CharacterizationStep.DONE) {
+                finishCharacterization();}
+            return;}
+
+        m_ElevatorMechanism.setVoltage(volts);
+        if (volts != 0) {
+            double appliedvolts = m_ElevatorLeftSpark.getAppliedOutput() * m_ElevatorLeftSpark.getBusVoltage();
+            fitter.addSample(now, appliedvolts, encoder.getVelocity() / 60.0);}}
+
+    private void startStep(CharacterizationStep step) {
+        characterizationstep = step;
+        stepstarttime = Timer.getFPGATimestamp();
+        fitter.startNewRun(); }
+
+    private void finishCharacterization() {
+        double[] gains = fitter.fit();
+        if (gains == null) {
+            DriverStation.reportWarning("Elevator characterization did not collect enough motion to fit, gains unchanged", false);
+            return;}
+        feedforward = new ElevatorFeedforward(gains[0], gains[1], gains[2], gains[3]);
+        saveFeedforward(feedforward, fitter.getSampleCount());
+        feedforwardLog.append(gains);
+
+        // Use the new velocity feedforward right away, without persisting it to flash
+        ElevatorConstants.leadConfig.closedLoop.velocityFF(velocityFFFor(feedforward));
+        m_ElevatorLeftSpark.configure(ElevatorConstants.leadConfig, ResetMode.kNoResetSafeParameters, PersistMode.kNoPersistParameters);
+        m_ElevatorMechanism.invalidate(); }
 
     private void goToPositionFaster(double targetposition){
         currentposition = encoder.getPosition();
@@ -173,9 +350,9 @@ public class ElevatorSubsystem extends SubsystemBase{
             speed = ElevatorConstants.kElevatorSpeed * distance/slowdowndistance;}
     
         if (Math.abs(distance) < 0.5) {  // If close enough to target, stop, otherwise set speed
-            m_ElevatorLeftSpark.stopMotor();}
+            m_ElevatorMechanism.stopMotor();}
         else {
-            m_ElevatorLeftSpark.set(speed);}
+            m_ElevatorMechanism.set(speed);}
         
 
     }
@@ -5,19 +5,28 @@
 package frc.robot.subsystems;
 
 import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.system.plant.DCMotor;
+import edu.wpi.first.math.system.plant.LinearSystemId;
 import edu.wpi.first.math.kinematics.SwerveModulePosition;
 import edu.wpi.first.math.kinematics.SwerveModuleState;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.simulation.DCMotorSim;
 
-import com.revrobotics.spark.SparkClosedLoopController;
 import com.revrobotics.spark.SparkMax;
 import com.revrobotics.spark.SparkBase.ControlType;
-import com.revrobotics.spark.SparkBase.PersistMode;
-import com.revrobotics.spark.SparkBase.ResetMode;
 import com.revrobotics.spark.SparkLowLevel.MotorType;
 import com.revrobotics.AbsoluteEncoder;
 import com.revrobotics.RelativeEncoder;
+import com.revrobotics.sim.SparkAbsoluteEncoderSim;
+import com.revrobotics.sim.SparkMaxSim;
 
+import frc.robot.Constants.CANConstants;
 import frc.robot.Constants.ModuleConstants;
+import frc.robot.Constants.SimConstants;
+import frc.utils.FastSwerveKinematics;
+import frc.utils.SparkConfigurator;
+import frc.utils.SparkSetpointWriter;
 
 public class MAXSwerveModule {
   private final SparkMax m_drivingSparkMax;
@@ -26,11 +35,36 @@ public class MAXSwerveModule {
   private final RelativeEncoder m_drivingEncoder;
   private final AbsoluteEncoder m_turningEncoder;
 
-  private final SparkClosedLoopController m_drivingPIDController;
-  private final SparkClosedLoopController m_turningPIDController;
+  // Only send setpoints to the SPARKS when they change
+  private final SparkSetpointWriter m_drivingOutput;
+  private final SparkSetpointWriter m_turningOutput;
 
   private double m_chassisAngularOffset = 0;
-  private SwerveModuleState m_desiredState = new SwerveModuleState(0.0, new Rotation2d());
+  private double m_offsetCos = 1;
+  private double m_offsetSin = 0;
+
+  // Last state the module was asked for, relative to the chassis
+  private double m_desiredSpeed;
+  private double m_desiredAngle;
+
+  // Raw turning angle relative to the chassis and the Rotation2d last built from it,
+  // handed to every holder updatePosition fills until the angle changes
+  private double m_lastRawAngle = Double.NaN;
+  private Rotation2d m_lastRotation;
+
+  // Scratch {speed, cos, sin} for the primitive setDesiredState
+  private final double[] m_correctedState = new double[3];
+
+  // Setpoints last handed to the setpoint writers, whether or not they were sent
+  private double m_commandedSpeed;
+  private double m_commandedAngle;
+
+  // Simulation models, only created when running on the desktop
+  private SparkMaxSim m_drivingSim;
+  private SparkMaxSim m_turningSim;
+  private SparkAbsoluteEncoderSim m_turningEncoderSim;
+  private DCMotorSim m_drivePhysics;
+  private DCMotorSim m_turningPhysics;
 
   /**
    * Constructs a MAXSwerveModule and configures the driving and turning motor,
@@ -42,23 +76,66 @@ public class MAXSwerveModule {
     m_drivingSparkMax = new SparkMax(drivingCANId, MotorType.kBrushless);
     m_turningSparkMax = new SparkMax(turningCANId, MotorType.kBrushless);
 
-    // Setup encoders and PID controllers for the driving and turning SPARKS MAX.
+    // Setup encoders and setpoint writers for the driving and turning SPARKS MAX.
     m_drivingEncoder = m_drivingSparkMax.getEncoder();
     m_turningEncoder = m_turningSparkMax.getAbsoluteEncoder();
-    m_drivingPIDController = m_drivingSparkMax.getClosedLoopController();
-    m_turningPIDController = m_turningSparkMax.getClosedLoopController();
+    m_drivingOutput = new SparkSetpointWriter("Drive" + drivingCANId, m_drivingSparkMax,
+        CANConstants.kDriveVelocityTolerance);
+    m_turningOutput = new SparkSetpointWriter("Turning" + turningCANId, m_turningSparkMax,
+        CANConstants.kTurningAngleTolerance);
 
-    // Apply the respective configurations to the SPARKS. Reset parameters before
-    // applying the configuration to bring the SPARK to a known good state. Persist
-    // the settings to the SPARK to avoid losing them on a power cycle.
-    m_drivingSparkMax.configure(ModuleConstants.drivingConfig, ResetMode.kResetSafeParameters,
-        PersistMode.kPersistParameters);
-    m_turningSparkMax.configure(ModuleConstants.turningConfig, ResetMode.kResetSafeParameters,
-        PersistMode.kPersistParameters);
+    // Apply the respective configurations to the SPARKS, alongside every other SPARK
+    // on the robot. The configurator resets parameters to bring the SPARK to a known
+    // good state, and persists them only when the SPARK doesn't already hold them.
+    SparkConfigurator.configure(m_drivingSparkMax, ModuleConstants.drivingConfig);
+    SparkConfigurator.configure(m_turningSparkMax, ModuleConstants.turningConfig);
 
     m_chassisAngularOffset = chassisAngularOffset;
-    m_desiredState.angle = new Rotation2d(m_turningEncoder.getPosition());
+    m_offsetCos = Math.cos(chassisAngularOffset);
+    m_offsetSin = Math.sin(chassisAngularOffset);
+    m_desiredAngle = m_turningEncoder.getPosition();
     m_drivingEncoder.setPosition(0);
+
+    if (RobotBase.isSimulation()) {
+      DCMotor neo = DCMotor.getNEO(1);
+      m_drivingSim = new SparkMaxSim(m_drivingSparkMax, neo);
+      m_turningSim = new SparkMaxSim(m_turningSparkMax, neo);
+      m_turningEncoderSim = m_turningSim.getAbsoluteEncoderSim();
+      m_drivePhysics = new DCMotorSim(
+          LinearSystemId.createDCMotorSystem(neo, SimConstants.kDriveMOI, ModuleConstants.kDrivingMotorReduction), neo);
+      m_turningPhysics = new DCMotorSim(
+          LinearSystemId.createDCMotorSystem(neo, SimConstants.kTurningMOI, SimConstants.kTurningMotorReduction), neo);
+    }
+  }
+
+  /**
+   * Moves the simulated turning encoder, for tests.
+   *
+   * @param radians The absolute encoder position, before the chassis angular offset.
+   */
+  void setSimulatedTurningPosition(double radians) {
+    m_turningEncoderSim.setPosition(radians);
+  }
+
+  /**
+   * Advances the module physics by one step. The SPARK simulation runs the onboard
+   * velocity and position loops, so the module tracks its setpoints like the real one.
+   *
+   * @param dtSeconds The time step.
+   */
+  public void simulationPeriodic(double dtSeconds) {
+    double vbus = RobotController.getBatteryVoltage();
+
+    m_drivePhysics.setInputVoltage(m_drivingSim.getAppliedOutput() * vbus);
+    m_drivePhysics.update(dtSeconds);
+    double wheelVelocity = m_drivePhysics.getAngularVelocityRadPerSec() * ModuleConstants.kWheelDiameterMeters / 2; // meters per second
+    m_drivingSim.iterate(wheelVelocity, vbus, dtSeconds);
+
+    m_turningPhysics.setInputVoltage(m_turningSim.getAppliedOutput() * vbus);
+    m_turningPhysics.update(dtSeconds);
+    double turningVelocity = m_turningPhysics.getAngularVelocityRadPerSec(); // radians per second
+    m_turningEncoderSim.iterate(turningVelocity, dtSeconds);
+    m_turningSim.iterate(turningVelocity, vbus, dtSeconds);
   }
 
   /**
@@ -86,6 +163,75 @@ public class MAXSwerveModule {
         new Rotation2d(m_turningEncoder.getPosition() - m_chassisAngularOffset));
   }
 
+  /**
+   * Updates the given position in place with the current position of the module.
+   * A new Rotation2d is only built when the raw turning angle changed since the last
+   * one, so a module that is holding its heading does not allocate anything. The
+   * change is judged on the raw angle rather than the holder's getRadians, which
+   * comes back through atan2 and rarely matches the raw angle exactly. Any holder
+   * that doesn't have the current Rotation2d, because something else such as the
+   * odometry sampler wrote it in between, is handed the current one.
+   *
+   * @param position The position holder to fill, owned by the caller and reused every loop.
+   */
+  public void updatePosition(SwerveModulePosition position) {
+    position.distanceMeters = m_drivingEncoder.getPosition();
+
+    double angle = m_turningEncoder.getPosition() - m_chassisAngularOffset;
+    if (angle != m_lastRawAngle) {
+      m_lastRawAngle = angle;
+      m_lastRotation = new Rotation2d(angle);
+    }
+    if (position.angle != m_lastRotation) {
+      position.angle = m_lastRotation;
+    }
+  }
+
+  /**
+   * Returns the distance driven by the module.
+   *
+   * @return The driving encoder position in meters.
+   */
+  public double getDrivePositionMeters() {
+    return m_drivingEncoder.getPosition();
+  }
+
+  /**
+   * Returns the speed of the module.
+   *
+   * @return The driving encoder velocity in meters per second.
+   */
+  public double getDriveVelocity() {
+    return m_drivingEncoder.getVelocity();
+  }
+
+  /**
+   * Returns the speed the module was last asked for.
+   *
+   * @return The desired speed in meters per second.
+   */
+  public double getDesiredSpeed() {
+    return m_desiredSpeed;
+  }
+
+  /**
+   * Returns the angle the module was last asked for.
+   *
+   * @return The desired angle relative to the chassis, in radians.
+   */
+  public double getDesiredAngleRadians() {
+    return m_desiredAngle;
+  }
+
+  /**
+   * Returns the angle of the module relative to the chassis.
+   *
+   * @return The turning angle in radians.
+   */
+  public double getTurningAngleRadians() {
+    return m_turningEncoder.getPosition() - m_chassisAngularOffset;
+  }
+
   /**
    * Sets the desired state for the module.
    *
@@ -101,10 +247,60 @@ public class MAXSwerveModule {
     correctedDesiredState.optimize(new Rotation2d(m_turningEncoder.getPosition()));
 
     // Command driving and turning SPARKS MAX towards their respective setpoints.
-    m_drivingPIDController.setReference(correctedDesiredState.speedMetersPerSecond, ControlType.kVelocity);
-    m_turningPIDController.setReference(correctedDesiredState.angle.getRadians(), ControlType.kPosition);
+    m_commandedSpeed = correctedDesiredState.speedMetersPerSecond;
+    m_commandedAngle = correctedDesiredState.angle.getRadians();
+    m_drivingOutput.setReference(m_commandedSpeed, ControlType.kVelocity);
+    m_turningOutput.setReference(m_commandedAngle, ControlType.kPosition);
 
-    m_desiredState = desiredState;
+    m_desiredSpeed = desiredState.speedMetersPerSecond;
+    m_desiredAngle = desiredState.angle.getRadians();
+  }
+
+  /**
+   * Sets the desired state for the module without allocating, with the angle given
+   * as the cosine and sine a Rotation2d would hold. Commands the same setpoints as
+   * {@link #setDesiredState(SwerveModuleState)}.
+   *
+   * @param speedMetersPerSecond Desired speed.
+   * @param angleCos Cosine of the desired angle.
+   * @param angleSin Sine of the desired angle.
+   */
+  public void setDesiredState(double speedMetersPerSecond, double angleCos, double angleSin) {
+    // Apply chassis angular offset to the desired state.
+    m_correctedState[FastSwerveKinematics.kSpeed] = speedMetersPerSecond;
+    m_correctedState[FastSwerveKinematics.kCos] = angleCos;
+    m_correctedState[FastSwerveKinematics.kSin] = angleSin;
+    FastSwerveKinematics.rotateBy(m_correctedState, m_offsetCos, m_offsetSin);
+
+    // Optimize the reference state to avoid spinning further than 90 degrees.
+    FastSwerveKinematics.optimize(m_correctedState, m_turningEncoder.getPosition());
+
+    // Command driving and turning SPARKS MAX towards their respective setpoints.
+    m_commandedSpeed = m_correctedState[FastSwerveKinematics.kSpeed];
+    m_commandedAngle = FastSwerveKinematics.getRadians(m_correctedState);
+    m_drivingOutput.setReference(m_commandedSpeed, ControlType.kVelocity);
+    m_turningOutput.setReference(m_commandedAngle, ControlType.kPosition);
+
+    m_desiredSpeed = speedMetersPerSecond;
+    m_desiredAngle = Math.atan2(angleSin, angleCos);
+  }
+
+  /**
+   * Returns the driving setpoint from the last setDesiredState, for tests.
+   *
+   * @return The driving velocity setpoint in meters per second.
+   */
+  double getCommandedSpeed() {
+    return m_commandedSpeed;
+  }
+
+  /**
+   * Returns the turning setpoint from the last setDesiredState, for tests.
+   *
+   * @return The turning position setpoint in radians, in the encoder's frame.
+   */
+  double getCommandedAngle() {
+    return m_commandedAngle;
   }
 
   /** Zeroes all the SwerveModule encoders. */
@@ -0,0 +1,144 @@
+package frc.robot.subsystems;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.kauailabs.navx.frc.AHRS;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Samples the swerve encoders and the gyro on a fast thread of its own.
+ *
+ * <p>Each sample is written into a preallocated ring of primitive arrays and published by
+ * bumping a write counter. The main loop drains the samples in order with {@link #poll}, so
+ * odometry is integrated at the sampling rate instead of once per 20 ms loop. There is one
+ * producer and one consumer, so the counters are the only synchronization needed. If the main
+ * loop falls a whole buffer behind, new samples are dropped and counted instead of blocking.
+ */
+public class OdometrySampler {
+
+    private final MAXSwerveModule[] modules;
+    private final AHRS gyro;
+    private final Notifier notifier;
+
+    private final int capacity;
+    private final double[] timestamps;
+    private final double[] gyroAngles;
+    private final double[] drivePositions;
+    private final double[] turningAngles;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private volatile long dropped;
+
+    // Raw turning angle and the Rotation2d last built from it for each module, used by poll only
+    private final double[] lastAngles;
+    private final Rotation2d[] lastRotations;
+
+    // Values of the sample most recently returned by poll
+    private double polledTimestamp;
+    private double polledGyroAngle;
+
+    /**
+     * Creates a sampler. Call {@link #start(double)} to begin sampling.
+     * @param modules The modules in kinematics order.
+     * @param gyro The gyro to read alongside the modules.
+     * @param capacity The number of samples the queue can hold.
+     */
+    public OdometrySampler(MAXSwerveModule[] modules, AHRS gyro, int capacity) {
+        this.modules = modules;
+        this.gyro = gyro;
+        this.capacity = capacity;
+        timestamps = new double[capacity];
+        gyroAngles = new double[capacity];
+        drivePositions = new double[capacity * modules.length];
+        turningAngles = new double[capacity * modules.length];
+        lastAngles = new double[modules.length];
+        lastRotations = new Rotation2d[modules.length];
+        Arrays.fill(lastAngles, Double.NaN);
+        notifier = new Notifier(this::sample);
+        notifier.setName("OdometrySampler");
+    }
+
+    /**
+     * Starts sampling.
+     * @param periodSeconds The time between samples.
+     */
+    public void start(double periodSeconds) {
+        notifier.startPeriodic(periodSeconds);
+    }
+
+    private void sample() {
+        long index = written.get();
+        if (index - read.get() >= capacity) {
+            dropped++;
+            return;
+        }
+        int slot = (int) (index % capacity);
+        int base = slot * modules.length;
+        // Read the gyro in the middle of the encoders so they are as close in time as we can get
+        for (int i = 0; i < modules.length / 2; i++) {
+            drivePositions[base + i] = modules[i].getDrivePositionMeters();
+            turningAngles[base + i] = modules[i].getTurningAngleRadians();
+        }
+        gyroAngles[slot] = gyro.getAngle();
+        for (int i = modules.length / 2; i < modules.length; i++) {
+            drivePositions[base + i] = modules[i].getDrivePositionMeters();
+            turningAngles[base + i] = modules[i].getTurningAngleRadians();
+        }
+        timestamps[slot] = Timer.getFPGATimestamp();
+        written.set(index + 1);
+    }
+
+    /**
+     * Takes the oldest queued sample and writes the module positions into the given holders.
+     * A new Rotation2d is only built when a module's raw angle changed since the last sample,
+     * judged on the raw angle because a Rotation2d gives it back through atan2.
+     * @param positions The position holders to fill, in kinematics order.
+     * @return true if a sample was taken, false if the queue is empty.
+     */
+    public boolean poll(SwerveModulePosition[] positions) {
+        long index = read.get();
+        if (index >= written.get()) return false;
+
+        int slot = (int) (index % capacity);
+        int base = slot * modules.length;
+        for (int i = 0; i < modules.length; i++) {
+            positions[i].distanceMeters = drivePositions[base + i];
+            double angle = turningAngles[base + i];
+            if (angle != lastAngles[i]) {
+                lastAngles[i] = angle;
+                lastRotations[i] = new Rotation2d(angle);
+            }
+            positions[i].angle = lastRotations[i];
+        }
+        polledTimestamp = timestamps[slot];
+        polledGyroAngle = gyroAngles[slot];
+        read.set(index + 1);
+        return true;
+    }
+
+    /** @return The FPGA time of the sample most recently returned by {@link #poll}. */
+    public double getTimestamp() {
+        return polledTimestamp;
+    }
+
+    /** @return The raw gyro angle in degrees of the sample most recently returned by {@link #poll}. */
+    public double getGyroAngle() {
+        return polledGyroAngle;
+    }
+
+    /** Throws away any queued samples, used when the odometry is reset. */
+    public void clear() {
+        read.set(written.get());
+    }
+
+    /** @return The number of samples dropped because the queue was full. */
+    public long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,220 @@
+package frc.robot.subsystems;
+
+import frc.robot.Constants.AlgaeConstants;
+import frc.robot.Constants.CoralConstants;
+import frc.robot.Constants.ElevatorConstants;
+import frc.robot.Constants.SuperstructureConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.utils.Common;
+import frc.utils.Telemetry;
+import frc.utils.TimedSubsystem;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.util.datalog.IntegerLogEntry;
+import edu.wpi.first.util.datalog.StringLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Coordinates the elevator, coral wrist and algae wrist as one mechanism.
+ *
+ * <p>The superstructure moves between named poses. All three mechanisms move at the same time,
+ * except when the elevator has to travel through the collision zone: then the wrists tuck in
+ * first, and the elevator only goes as far as the edge of the zone, or holds where it is if it is already
+ * inside, until they are tucked. Once the
+ * elevator is past the zone, the wrists unfold to the pose while the elevator finishes its move.
+ * Manual control of a mechanism overrides the superstructure for that mechanism.
+ */
+public class Superstructure extends TimedSubsystem {
+
+    /** Elevator height, coral wrist and algae wrist positions for each pose, in motor rotations. */
+    public enum Pose {
+        STOW(ElevatorConstants.corallevels[0], CoralConstants.coralwristlevels[0], AlgaeConstants.algaewristlevels[0]),
+        CORAL_INTAKE(ElevatorConstants.corallevels[1], CoralConstants.coralwristlevels[1], AlgaeConstants.algaewristlevels[0]),
+        L1(ElevatorConstants.corallevels[2], CoralConstants.coralwristlevels[2], AlgaeConstants.algaewristlevels[0]),
+        L2(ElevatorConstants.corallevels[3], CoralConstants.coralwristlevels[2], AlgaeConstants.algaewristlevels[0]),
+        L3(ElevatorConstants.corallevels[4], CoralConstants.coralwristlevels[2], AlgaeConstants.algaewristlevels[0]),
+        L4(ElevatorConstants.corallevels[5], CoralConstants.coralwristlevels[3], AlgaeConstants.algaewristlevels[0]),
+        ALGAE_GROUND(ElevatorConstants.algaelevels[1], CoralConstants.coralwristlevels[0], AlgaeConstants.algaewristlevels[1]),
+        PROCESSOR(ElevatorConstants.algaelevels[2], CoralConstants.coralwristlevels[0], AlgaeConstants.algaewristlevels[1]),
+        ALGAE_L2(ElevatorConstants.algaelevels[3], CoralConstants.coralwristlevels[0], AlgaeConstants.algaewristlevels[1]),
+        ALGAE_L3(ElevatorConstants.algaelevels[4], CoralConstants.coralwristlevels[0], AlgaeConstants.algaewristlevels[1]),
+        BARGE(ElevatorConstants.algaelevels[5], CoralConstants.coralwristlevels[0], AlgaeConstants.algaewristlevels[2]);
+
+        public final double elevator;
+        public final double coralWrist;
+        public final double algaeWrist;
+
+        Pose(double elevator, double coralWrist, double algaeWrist) {
+            this.elevator = elevator;
+            this.coralWrist = coralWrist;
+            this.algaeWrist = algaeWrist; }
+    }
+
+    // Coral Mode Elevator Levels are 0-Stow, 1-CoralIntake, 2-L1, 3-L2, 4-L3, 5-L4
+    private static final Pose[] coralPoses = {Pose.STOW, Pose.CORAL_INTAKE, Pose.L1, Pose.L2, Pose.L3, Pose.L4};
+    // Algae Mode Elevator Levels are 0-Stow, 1-GroundIntake, 2-AlgaeProcessor, 3-L2, 4-L3, 5-Max
+    private static final Pose[] algaePoses = {Pose.STOW, Pose.ALGAE_GROUND, Pose.PROCESSOR, Pose.ALGAE_L2, Pose.ALGAE_L3, Pose.BARGE};
+
+    private final ElevatorSubsystem elevator;
+    private final CoralSubsystem coral;
+    private final AlgaeSubsystem algae;
+
+    private Pose pose;
+    private boolean active;
+
+    // Where the elevator is held while it waits inside the collision zone for the wrists, NaN when not holding
+    private double elevatorholdposition = Double.NaN;
+
+    // Driver selected mode and level, the pose follows from them
+    private boolean coralmode = true;
+    private int level;
+    private final IntegerLogEntry levelLog;
+
+    // Transition timing
+    private Pose transitionfrom;
+    private double transitionstarttime;
+    private boolean transitioning;
+    private double lasttransitionseconds;
+    private final DoubleLogEntry transitionTimeLog;
+    private final StringLogEntry transitionLog;
+
+    public Superstructure(ElevatorSubsystem elevator, CoralSubsystem coral, AlgaeSubsystem algae) {
+        this.elevator = elevator;
+        this.coral = coral;
+        this.algae = algae;
+
+        DataLog log = DataLogManager.getLog();
+        transitionTimeLog = new DoubleLogEntry(log, "Superstructure/TransitionSeconds");
+        transitionLog = new StringLogEntry(log, "Superstructure/Transition");
+        levelLog = new IntegerLogEntry(log, "Superstructure/Level");
+
+        Telemetry.addBoolean("Superstructure/CoralMode", () -> coralmode, TelemetryConstants.kNormal);
+        Telemetry.addInteger("Superstructure/Level", () -> level, TelemetryConstants.kNormal);
+        Telemetry.addInteger("Superstructure/Pose", () -> pose == null ? -1 : pose.ordinal(), TelemetryConstants.kNormal);
+        Telemetry.addBoolean("Superstructure/AtPose", this::atPose, TelemetryConstants.kNormal);
+        Telemetry.addInteger("Superstructure/LastTransitionFrom", () -> transitionfrom == null ? -1 : transitionfrom.ordinal(), TelemetryConstants.kNormal);
+        Telemetry.addDouble("Superstructure/LastTransitionSeconds", () -> lasttransitionseconds, TelemetryConstants.kNormal);
+    }
+
+    /** @return The pose for an elevator level in coral or algae mode. */
+    public static Pose poseFor(boolean coralmode, int level) {
+        level = Common.clamp(level, 0, 5);
+        return coralmode ? coralPoses[level] : algaePoses[level]; }
+
+    /** Switches to coral mode and goes to the coral intake. */
+    public void selectCoralMode() {
+        coralmode = true;
+        level = 1;
+        setPose(poseFor(coralmode, level)); }
+
+    /** Switches to algae mode at the same level. */
+    public void selectAlgaeMode() {
+        coralmode = false;
+        setPose(poseFor(coralmode, level)); }
+
+    public void levelUp() {
+        level = Common.clamp(level + 1, 0, 5);
+        setPose(poseFor(coralmode, level)); }
+
+    public void levelDown() {
+        level = Common.clamp(level - 1, 0, 5);
+        setPose(poseFor(coralmode, level)); }
+
+    public boolean isCoralMode() {
+        return coralmode; }
+
+    /** Goes back to coral mode without moving anything, for the start of teleop. */
+    public void resetMode() {
+        coralmode = true; }
+
+    /** Starts moving to a pose and takes the mechanisms back from manual control. Calling it again with the same pose does not restart the move. */
+    public void setPose(Pose newpose) {
+        active = true;
+        elevator.endManualControl();
+        coral.endManualControl();
+        algae.endManualControl();
+        if (newpose == pose) return;
+        transitionfrom = pose;
+        transitionstarttime = Timer.getFPGATimestamp();
+        transitioning = true;
+        pose = newpose;
+        coral.setL4Scoring(newpose == Pose.L4); }
+
+    /** Stops commanding the mechanisms until the next pose is set. */
+    public void release() {
+        active = false;
+        transitioning = false;
+        elevatorholdposition = Double.NaN; }
+
+    /** Runs after the mechanisms have read their positions this loop, since it is registered with the scheduler after them. */
+    @Override
+    protected void timedPeriodic() {
+        levelLog.append(level);
+        if (!active || pose == null) return;
+
+        double elevatorposition = elevator.getPosition();
+        double coralcommand = pose.coralWrist;
+        double algaecommand = pose.algaeWrist;
+        double elevatorcommand = pose.elevator;
+        boolean holdelevator = false;
+
+        // Whatever is left of the elevator move goes through the collision zone, so tuck the wrists for it
+        if (crossesCollisionZone(elevatorposition, pose.elevator)) {
+            coralcommand = Math.min(coralcommand, SuperstructureConstants.kCoralWristSafe);
+            algaecommand = Math.min(algaecommand, SuperstructureConstants.kAlgaeWristSafe);
+            boolean tucked = coral.getWristPosition() <= SuperstructureConstants.kCoralWristSafe + CoralConstants.kWristPositionTolerance
+                          && algae.getWristPosition() <= SuperstructureConstants.kAlgaeWristSafe + AlgaeConstants.kWristPositionTolerance;
+            if (!tucked) {
+                // Move up to the edge of the zone while the wrists tuck, or hold if already inside it
+                if (elevatorposition < SuperstructureConstants.kElevatorCollisionZoneLow) {
+                    elevatorcommand = SuperstructureConstants.kElevatorCollisionZoneLow;}
+                else if (elevatorposition > SuperstructureConstants.kElevatorCollisionZoneHigh) {
+                    elevatorcommand = SuperstructureConstants.kElevatorCollisionZoneHigh;}
+                else {
+                    holdelevator = true;}}}
+
+        // Inside the zone the elevator is actively held where it was when the hold started, otherwise
+        // the Spark would keep running its previous goal straight through the zone
+        if (holdelevator) {
+            if (Double.isNaN(elevatorholdposition)) {
+                elevatorholdposition = elevatorposition;}
+            elevatorcommand = elevatorholdposition;}
+        else {
+            elevatorholdposition = Double.NaN;}
+
+        if (!elevator.inManualControl()) {
+            elevator.goToHeight(elevatorcommand);}
+        if (!coral.inManualControl() && !coral.isL4Flicking()) {
+            coral.goToWristPosition(coralcommand);}
+        if (!algae.inManualControl()) {
+            algae.goToWristPosition(algaecommand);}
+
+        // Record how long the whole transition took the first time everything is there
+        if (transitioning && atPose()) {
+            transitioning = false;
+            lasttransitionseconds = Timer.getFPGATimestamp() - transitionstarttime;
+            transitionTimeLog.append(lasttransitionseconds);
+            transitionLog.append((transitionfrom == null ? "NONE" : transitionfrom.name()) + "->" + pose.name());}
+    }
+
+    // True if the move from one elevator position to another passes through or ends in the collision zone
+    private static boolean crossesCollisionZone(double from, double to) {
+        return Math.max(from, to) > SuperstructureConstants.kElevatorCollisionZoneLow
+            && Math.min(from, to) < SuperstructureConstants.kElevatorCollisionZoneHigh; }
+
+    /** @return True if all three mechanisms are within tolerance of the current pose. */
+    public boolean atPose() {
+        return pose != null
+            && Math.abs(elevator.getPosition() - pose.elevator) < ElevatorConstants.kPositionTolerance
+            && Math.abs(coral.getWristPosition() - pose.coralWrist) < CoralConstants.kWristPositionTolerance
+            && Math.abs(algae.getWristPosition() - pose.algaeWrist) < AlgaeConstants.kWristPositionTolerance; }
+
+    /** @return The pose being moved to or held, or null before the first one is set. */
+    public Pose getPose() {
+        return pose; }
+
+    /** @return How long the last completed transition took, in seconds. */
+    public double getLastTransitionSeconds() {
+        return lasttransitionseconds; }
+}
@@ -0,0 +1,246 @@
+package frc.robot.subsystems;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.PhotonCamera;
+import org.photonvision.PhotonPoseEstimator;
+import org.photonvision.PhotonPoseEstimator.PoseStrategy;
+import org.photonvision.simulation.PhotonCameraSim;
+import org.photonvision.simulation.SimCameraProperties;
+import org.photonvision.simulation.VisionSystemSim;
+import org.photonvision.targeting.PhotonPipelineResult;
+import org.photonvision.targeting.PhotonTrackedTarget;
+
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.math.geometry.Transform3d;
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.PhotonVisionConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.utils.FieldTagIndex;
+import frc.utils.LatencyLeg;
+import frc.utils.ObservationFilter;
+import frc.utils.Telemetry;
+
+/**
+ * One PhotonVision camera and the thread that processes its frames.
+ *
+ * <p>Each camera reduces its own frames to the newest target on our reef and field pose, so adding a
+ * camera adds a thread rather than work in the main loop. Frame rate, latency from capture to
+ * processing, and dropped and rejected frames are published under Vision/&lt;camera&gt;.
+ *
+ * <p>Each frame's latency is split into legs, each with its own histogram: Pipeline is capture to
+ * publish on the coprocessor as PhotonVision reports it, Transport is from there until this camera's
+ * thread picks the frame up, and Processing is the time this thread spends on the frame.
+ *
+ * <p>Every reef target is scored from 0 to 1 by its pose ambiguity, distance, area, how many tags
+ * the frame saw and how old the frame is, and the best one in the frame is kept if it scores
+ * at least {@link PhotonVisionConstants#kMinQuality}. The robot position it implies is then
+ * checked against the camera's recent observations, each taken relative to the drive's odometry at
+ * its capture time, and frames that disagree are dropped. Field poses go through the same outlier
+ * check.
+ */
+public class VisionCamera {
+
+    /** Name of the camera in PhotonVision, and where it sits relative to the robot center. */
+    public record Config(String name, Transform3d robotToCamera) {}
+
+    private final Config config;
+    private final FieldTagIndex tags;
+    private final PhotonCamera camera;
+    private final PhotonPoseEstimator poseEstimator;
+    private Notifier thread;
+
+    // Newest processed frame and field pose, written by the camera thread and read by the main loop
+    private final AtomicReference<VisionResult> latest = new AtomicReference<>(VisionResult.kNoTarget);
+    private final AtomicReference<EstimatedRobotPose> latestPose = new AtomicReference<>();
+
+    // Frame statistics, written only by the thread that processes frames
+    private volatile long frames;
+    private volatile long dropped;
+    private volatile long rejected;
+    private volatile double framesPerSecond;
+    private volatile double latencyMillis;
+    private long lastSequence = -1;
+    private long windowFrames;
+    private double windowStart;
+
+    // Latency legs, recorded and summarized by the thread that processes frames
+    private final LatencyLeg pipelineLatency;
+    private final LatencyLeg transportLatency;
+    private final LatencyLeg processingLatency;
+
+    // Recent robot positions implied by the targets and by the field poses, for outlier rejection
+    private final ObservationFilter targetHistory;
+    private final ObservationFilter poseHistory;
+
+    public VisionCamera(Config config, AprilTagFieldLayout layout, FieldTagIndex tags,
+            ObservationFilter.OdometryHistory odometryHistory) {
+        this.config = config;
+        this.tags = tags;
+        targetHistory = new ObservationFilter(PhotonVisionConstants.kHistorySize, PhotonVisionConstants.kHistorySeconds,
+            PhotonVisionConstants.kOutlierMeters, PhotonVisionConstants.kMinHistory, odometryHistory);
+        poseHistory = new ObservationFilter(PhotonVisionConstants.kHistorySize, PhotonVisionConstants.kHistorySeconds,
+            PhotonVisionConstants.kOutlierMeters, PhotonVisionConstants.kMinHistory, odometryHistory);
+        camera = new PhotonCamera(config.name());
+        poseEstimator = new PhotonPoseEstimator(layout, PoseStrategy.MULTI_TAG_PNP_ON_COPROCESSOR, config.robotToCamera());
+        poseEstimator.setMultiTagFallbackStrategy(PoseStrategy.LOWEST_AMBIGUITY);
+
+        String topic = "Vision/" + config.name();
+        Telemetry.addBoolean(topic + "/Connected", camera::isConnected, TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "/FPS", () -> framesPerSecond, TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "/LatencyMs", () -> latencyMillis, TelemetryConstants.kNormal);
+        Telemetry.addInteger(topic + "/Frames", () -> frames, TelemetryConstants.kSlow);
+        Telemetry.addInteger(topic + "/Dropped", () -> dropped, TelemetryConstants.kSlow);
+        Telemetry.addInteger(topic + "/Rejected", () -> rejected, TelemetryConstants.kSlow);
+
+        // 0.5 ms buckets up to 200 ms for the legs that wait on the network, 10 us buckets up to 10 ms for processing
+        pipelineLatency = new LatencyLeg(topic + "/Latency/Pipeline", 500_000, 400);
+        transportLatency = new LatencyLeg(topic + "/Latency/Transport", 500_000, 400);
+        processingLatency = new LatencyLeg(topic + "/Latency/Processing", 10_000, 1000);
+    }
+
+    /** Adds the camera to PhotonVision's simulated vision system, for running against the desktop simulation. */
+    void addToSimulation(VisionSystemSim visionSim, SimCameraProperties properties) {
+        visionSim.addCamera(new PhotonCameraSim(camera, properties), config.robotToCamera());
+    }
+
+    /** Starts processing frames on the camera's own thread, if the vision thread is enabled. */
+    public void start() {
+        camera.getLatestResult(); // warm-up
+        windowStart = Timer.getFPGATimestamp();
+        if (PhotonVisionConstants.kUseVisionThread && thread == null) {
+            thread = new Notifier(this::processUnreadResults);
+            thread.setName("Vision-" + config.name());
+            thread.startPeriodic(PhotonVisionConstants.kVisionThreadPeriod);}
+    }
+
+    /** Processes frames on the caller's thread, when the vision thread is disabled. */
+    void poll() {
+        if (!PhotonVisionConstants.kUseVisionThread) {
+            processUnreadResults();}
+    }
+
+    /** @return The newest frame that saw a reef tag. */
+    public VisionResult getLatestResult() {
+        return latest.get();
+    }
+
+    /** @return The newest field pose since the last call, or null if there is none. */
+    public EstimatedRobotPose pollNewPose() {
+        return latestPose.getAndSet(null);
+    }
+
+    public String getName() {
+        return config.name();
+    }
+
+    private void processUnreadResults() {
+        var results = camera.getAllUnreadResults();
+        double now = Timer.getFPGATimestamp();
+        // Every frame can give a field pose, oldest first so the newest one wins
+        for (var result : results) {
+            long start = System.nanoTime();
+            poseEstimator.update(result).ifPresent(pose -> {
+                if (acceptPose(pose)) {
+                    latestPose.set(pose);}});
+            if (result == results.get(results.size() - 1)) {
+                VisionResult reduced = reduce(result, now);
+                // Keep the last frame that saw a reef tag
+                if (reduced != null) {
+                    latest.set(reduced);}}
+            processingLatency.record(System.nanoTime() - start);
+            countFrame(result, now);}
+
+        // Frame rate and latency summaries over roughly one second windows
+        if (now - windowStart >= 1.0) {
+            framesPerSecond = windowFrames / (now - windowStart);
+            windowFrames = 0;
+            windowStart = now;
+            pipelineLatency.summarize();
+            transportLatency.summarize();
+            processingLatency.summarize();}
+    }
+
+    private void countFrame(PhotonPipelineResult result, double now) {
+        frames++;
+        windowFrames++;
+        latencyMillis = (now - result.getTimestampSeconds()) * 1000.0;
+        double pipelineSeconds = result.metadata.getLatencyMillis() * 1e-3;
+        pipelineLatency.recordSeconds(pipelineSeconds);
+        transportLatency.recordSeconds(now - result.getTimestampSeconds() - pipelineSeconds);
+        // PhotonVision numbers its frames, a gap means frames were never received
+        long sequence = result.metadata.getSequenceID();
+        if (lastSequence >= 0 && sequence > lastSequence + 1) {
+            dropped += sequence - lastSequence - 1;}
+        lastSequence = sequence;
+    }
+
+    private boolean acceptPose(EstimatedRobotPose pose) {
+        // A single tag pose can flip between two solutions, only trust it when it is unambiguous
+        boolean accepted = pose.targetsUsed.size() > 1
+                        || pose.targetsUsed.get(0).getPoseAmbiguity() <= PhotonVisionConstants.kMaxAmbiguity;
+        accepted &= poseHistory.accept(pose.timestampSeconds, pose.estimatedPose.getX(), pose.estimatedPose.getY());
+        if (!accepted) {
+            rejected++;}
+        return accepted;
+    }
+
+    private VisionResult reduce(PhotonPipelineResult result, double now) {
+        if (!result.hasTargets()) return null;
+
+        int tagCount = result.getTargets().size();
+        double age = now - result.getTimestampSeconds();
+        PhotonTrackedTarget bestTarget = null;
+        Transform3d bestRobotToTag = null;
+        double bestQuality = PhotonVisionConstants.kMinQuality;
+        for (var target : result.getTargets()) {
+            // If the tag is on our reef
+            if (!tags.isOurReefTag(target.getFiducialId())) continue;
+            // Where the tag is from the robot center, the camera sees it from where it is mounted
+            Transform3d robotToTag = config.robotToCamera().plus(target.getBestCameraToTarget());
+            double quality = quality(target.getPoseAmbiguity(), robotToTag.getTranslation().getNorm(),
+                target.getArea(), tagCount, age);
+            if (quality >= bestQuality) {
+                bestTarget = target;
+                bestRobotToTag = robotToTag;
+                bestQuality = quality;}}
+        if (bestTarget == null) {
+            if (tagCount > 0) {
+                rejected++;}
+            return null;}
+
+        Transform2d robotToTag = new Transform2d(bestRobotToTag.getX(), bestRobotToTag.getY(),
+            bestRobotToTag.getRotation().toRotation2d());
+        // The robot position this target implies has to agree with the recent ones
+        Pose2d robot = tags.getTagPose(bestTarget.getFiducialId()).plus(robotToTag.inverse());
+        if (!targetHistory.accept(result.getTimestampSeconds(), robot.getX(), robot.getY())) {
+            rejected++;
+            return null;}
+
+        return new VisionResult(result.getTimestampSeconds(), Timer.getFPGATimestamp(), true, bestTarget.getFiducialId(),
+            bestTarget.getArea(), bestTarget.getYaw(), bestTarget.getPitch(), robotToTag, bestQuality);
+    }
+
+    /**
+     * Scores an observation from 0 to 1, 0 if it is too ambiguous or too far away to use.
+     * @param ambiguity PhotonVision's pose ambiguity, negative if it has none.
+     * @param distance Distance from the robot center to the tag, in meters.
+     * @param area Tag area, in percent of the image.
+     * @param tagCount How many tags the frame saw.
+     * @param age How long ago the frame was captured, in seconds.
+     */
+    static double quality(double ambiguity, double distance, double area, int tagCount, double age) {
+        if (ambiguity > PhotonVisionConstants.kMaxAmbiguity || distance > PhotonVisionConstants.kMaxTagDistanceMeters) {
+            return 0.0;}
+        double ambiguityTerm = 1.0 - Math.max(ambiguity, 0.0) / PhotonVisionConstants.kMaxAmbiguity * 0.5;
+        double distanceTerm = 1.0 - distance / PhotonVisionConstants.kMaxTagDistanceMeters * 0.5;
+        double areaTerm = Math.min(1.0, 0.5 + 0.5 * area / PhotonVisionConstants.kFullQualityArea);
+        double tagTerm = tagCount > 1 ? 1.0 : PhotonVisionConstants.kSingleTagWeight;
+        double ageTerm = Math.max(0.0, 1.0 - age / PhotonVisionConstants.kTargetTimeoutSeconds);
+        return ambiguityTerm * distanceTerm * areaTerm * tagTerm * ageTerm;
+    }
+}
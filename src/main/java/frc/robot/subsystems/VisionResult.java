@@ -0,0 +1,36 @@
+package frc.robot.subsystems;
+
+import edu.wpi.first.math.geometry.Transform2d;
+
+/**
+ * Immutable snapshot of one processed camera frame.
+ * A new instance is created for every frame that contains a reef target, so it can be
+ * handed from the vision thread to the main loop without any locking.
+ */
+public final class VisionResult {
+
+    public static final VisionResult kNoTarget = new VisionResult(0, 0, false, -1, 0, 0, 0, new Transform2d(), 0);
+
+    public final double timestampSeconds; // capture time of the frame, FPGA time base
+    public final double processedTimestampSeconds; // when the robot finished processing the frame, FPGA time base
+    public final boolean targetVisible;
+    public final int tagId;
+    public final double area;
+    public final double yaw;
+    public final double pitch;
+    public final Transform2d robotToTag; // where the tag is from the robot center, flattened onto the floor
+    public final double quality; // 0 to 1, see VisionCamera for how it is scored
+
+    public VisionResult(double timestampSeconds, double processedTimestampSeconds, boolean targetVisible, int tagId,
+            double area, double yaw, double pitch, Transform2d robotToTag, double quality) {
+        this.timestampSeconds = timestampSeconds;
+        this.processedTimestampSeconds = processedTimestampSeconds;
+        this.targetVisible = targetVisible;
+        this.tagId = tagId;
+        this.area = area;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.robotToTag = robotToTag;
+        this.quality = quality;
+    }
+}
@@ -1,79 +1,228 @@
 package frc.robot.subsystems;
 
-import org.photonvision.PhotonCamera;
+import java.util.function.Supplier;
 
-import edu.wpi.first.wpilibj2.command.SubsystemBase;
-import frc.utils.Common;
+import org.photonvision.EstimatedRobotPose;
+import org.photonvision.simulation.SimCameraProperties;
+import org.photonvision.simulation.VisionSystemSim;
 
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.apriltag.AprilTagFields;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleArrayLogEntry;
+import edu.wpi.first.util.datalog.IntegerLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.PhotonVisionConstants;
+import frc.robot.Constants.SimConstants;
+import frc.robot.Constants.TelemetryConstants;
+import frc.utils.FieldTagIndex;
+import frc.utils.LatencyLeg;
+import frc.utils.ObservationFilter;
+import frc.utils.Telemetry;
+import frc.utils.TimedSubsystem;
 
 
-public class VisionSubsystem extends SubsystemBase{
+/**
+ * Every camera in {@link PhotonVisionConstants#kCameras}, merged into one reef target and one
+ * stream of field poses.
+ *
+ * <p>Each camera processes its own frames on its own thread. Once a loop the newest reef target
+ * from any camera becomes the target, preferring the better scored one when two cameras saw one at
+ * about the same time. When no camera has seen a target for
+ * {@link PhotonVisionConstants#kTargetTimeoutSeconds} there is no target. Field poses are handed
+ * to the drive oldest first, and when two cameras produced a pose at about the same time only the
+ * one that used more tags is kept.
+ *
+ * <p>The cameras time the legs of each frame up to the moment the robot has processed it. The
+ * command that acts on a target finishes the chain with {@link #recordActuation(VisionResult)},
+ * which records the Actuation leg, from processed to motor command, and the Total from capture to
+ * motor command. In simulation the cameras are fed by PhotonVision's simulated vision system.
+ */
+public class VisionSubsystem extends TimedSubsystem{
 
     // PhotonVision 
-    PhotonCamera camera;
-    boolean targetVisible;  
-    int tagid;
-    int bestTarget;
-    double largestArea;
-    double targetForwardDistance;
-    double targetStrafeDistance;
-    double targetYaw;
-    double targetPitch;
-    boolean aligned;
-
-    public double forward;
-    public double strafe;
-    public double rotate;
-
-    public VisionSubsystem() {
-        camera = new PhotonCamera("FrontLeftCamera"); }
+    private final VisionCamera[] cameras;
+    private final FieldTagIndex tags;
+
+    // Newest reef target from any camera, merged in periodic and read by commands
+    private VisionResult latest = VisionResult.kNoTarget;
+    private int latestCamera = -1;
+
+    // On-robot log of each processed reef target as [timestamp, tag, area, yaw, pitch, x, y, theta, quality],
+    // x, y and theta being where the tag is from the robot center, and which camera saw it
+    private final DoubleArrayLogEntry targetLog;
+    private final IntegerLogEntry targetCameraLog;
+    private final double[] targetValues = new double[9];
+    private VisionResult lastLogged;
+
+    // Last legs of the latency chain, recorded from the main loop when a target reaches the motors
+    private final LatencyLeg actuationLatency = new LatencyLeg("Vision/Latency/Actuation", 500_000, 400);
+    private final LatencyLeg totalLatency = new LatencyLeg("Vision/Latency/Total", 500_000, 400);
+    private VisionResult lastActuated;
+    private int loopsSinceSummary;
+
+    // Simulated cameras, null on the robot
+    private VisionSystemSim visionSim;
+    private final Supplier<Pose2d> simulationPose;
+
+    /**
+     * @param simulationPose Where the robot really is, for the simulated cameras. Unused on the robot.
+     * @param odometryHistory The drive's odometry history, the cameras check observations against it.
+     */
+    public VisionSubsystem(Supplier<Pose2d> simulationPose, ObservationFilter.OdometryHistory odometryHistory) {
+        this.simulationPose = simulationPose;
+        AprilTagFieldLayout layout = AprilTagFieldLayout.loadField(AprilTagFields.k2025ReefscapeWelded);
+        tags = new FieldTagIndex(layout);
+        cameras = new VisionCamera[PhotonVisionConstants.kCameras.length];
+        for (int i = 0; i < cameras.length; i++) {
+            cameras[i] = new VisionCamera(PhotonVisionConstants.kCameras[i], layout, tags, odometryHistory);}
+
+        if (RobotBase.isSimulation()) {
+            visionSim = new VisionSystemSim("Vision");
+            visionSim.addAprilTags(layout);
+            SimCameraProperties properties = new SimCameraProperties();
+            properties.setCalibration(SimConstants.kCameraWidth, SimConstants.kCameraHeight,
+                Rotation2d.fromDegrees(SimConstants.kCameraDiagonalFovDegrees));
+            properties.setFPS(SimConstants.kCameraFps);
+            properties.setAvgLatencyMs(SimConstants.kCameraLatencyMs);
+            properties.setLatencyStdDevMs(SimConstants.kCameraLatencyStdDevMs);
+            for (VisionCamera camera : cameras) {
+                camera.addToSimulation(visionSim, properties);}}
+
+        DataLog log = DataLogManager.getLog();
+        targetLog = new DoubleArrayLogEntry(log, "Vision/Target");
+        targetCameraLog = new IntegerLogEntry(log, "Vision/TargetCamera");
+
+        // Publish the newest reef target
+        Telemetry.addBoolean("Vision/TargetVisible", () -> latest.targetVisible, TelemetryConstants.kNormal);
+        Telemetry.addInteger("Vision/TagId", () -> latest.tagId, TelemetryConstants.kNormal);
+        Telemetry.addInteger("Vision/TargetCamera", () -> latestCamera, TelemetryConstants.kNormal);
+        Telemetry.addDouble("Vision/Yaw", () -> latest.yaw, TelemetryConstants.kNormal);
+        Telemetry.addDouble("Vision/TargetQuality", () -> latest.quality, TelemetryConstants.kNormal); }
 
     public void init() {
-        camera.getLatestResult(); // warm-up  
-        forward=0;
-        strafe=0;
-        rotate=0;    }
-
-    public void getDirectionsToTarget() {
-      forward = 0;
-      strafe = 0;
-      rotate = 0;
-      getResults();
-
-      if (targetVisible) {
-        forward = (11.75 - largestArea) / largestArea; 
-        strafe= -(-4.27-targetYaw)*.02; 
-        forward = Common.clamp(forward, -0.1, 0.1, 0.05); 
-        strafe = Common.clamp(strafe, -0.1, 0.1, 0.01);        
-        rotate = 0;
-        aligned = (forward == 0) && (rotate == 0);
-      } 
+        // Pull and reduce frames on a thread per camera so the drive loop only reads the newest snapshots
+        for (VisionCamera camera : cameras) {
+            camera.start();}}
+
+    /** Merges the newest target from every camera, and drops it once it is too old. Runs before the commands that read it. */
+    @Override
+    protected void timedPeriodic() {
+        tags.updateAlliance();
+        double now = Timer.getFPGATimestamp();
+        VisionResult best = latest;
+        int bestCamera = latestCamera;
+        if (now - best.timestampSeconds > PhotonVisionConstants.kTargetTimeoutSeconds) {
+            best = VisionResult.kNoTarget;
+            bestCamera = -1;}
+        for (int i = 0; i < cameras.length; i++) {
+            cameras[i].poll();
+            VisionResult result = cameras[i].getLatestResult();
+            if (!result.targetVisible || now - result.timestampSeconds > PhotonVisionConstants.kTargetTimeoutSeconds) continue;
+            boolean newer = result.timestampSeconds > best.timestampSeconds + PhotonVisionConstants.kMergeWindowSeconds;
+            boolean sameTimeBetter = Math.abs(result.timestampSeconds - best.timestampSeconds) <= PhotonVisionConstants.kMergeWindowSeconds
+                                  && result.quality > best.quality;
+            if (!best.targetVisible || newer || sameTimeBetter) {
+                best = result;
+                bestCamera = i;}}
+        latest = best;
+        latestCamera = bestCamera;
+
+        if (++loopsSinceSummary >= TelemetryConstants.kSlow) {
+            loopsSinceSummary = 0;
+            actuationLatency.summarize();
+            totalLatency.summarize();}
     }
 
-    public void getResults() {
-      largestArea = 0.0;
-      var results = camera.getAllUnreadResults();
-      if (!results.isEmpty()){
-        var result = results.get(results.size() - 1);
-        if (result.hasTargets()) {
-            for (var target : result.getTargets()) {
-                tagid = target.getFiducialId();
-                // If the tag is a reef tag
-                if ((tagid >= 6 && tagid <= 11) || (tagid >= 17 && tagid <= 21)) {
-                  // Find the closest reef tag (based on largest area of frame) and capture Yaw and Range
-                  if (target.getArea() > largestArea) {
-                    bestTarget = tagid;
-                    largestArea = target.getArea();
-                    targetPitch = target.getPitch();
-                    targetYaw = target.getYaw();
-                    targetVisible = true;}}}}}
+    /** Renders the simulated cameras' view from where the simulated robot is. */
+    @Override
+    public void simulationPeriodic() {
+        visionSim.update(simulationPose.get());
     }
 
-    public boolean targetVisible() {
-        return targetVisible;
+    /**
+     * Records how long a target took to reach the motors. Call right after the first drive
+     * command computed from it; later calls for the same target are ignored.
+     * @param result The target the command acted on.
+     */
+    public void recordActuation(VisionResult result) {
+        if (result == lastActuated || !result.targetVisible) return;
+        lastActuated = result;
+        double now = Timer.getFPGATimestamp();
+        actuationLatency.recordSeconds(now - result.processedTimestampSeconds);
+        totalLatency.recordSeconds(now - result.timestampSeconds);
     }
 
-    public boolean onTarget() {
-        return targetVisible && aligned;
+    /** Logs the newest reef target if it changed since the last call. Called from the main loop. */
+    public void log() {
+        VisionResult result = latest;
+        if (result == lastLogged || !result.targetVisible) return;
+        lastLogged = result;
+        targetValues[0] = result.timestampSeconds;
+        targetValues[1] = result.tagId;
+        targetValues[2] = result.area;
+        targetValues[3] = result.yaw;
+        targetValues[4] = result.pitch;
+        targetValues[5] = result.robotToTag.getX();
+        targetValues[6] = result.robotToTag.getY();
+        targetValues[7] = result.robotToTag.getRotation().getRadians();
+        targetValues[8] = result.quality;
+        targetLog.append(targetValues);
+        targetCameraLog.append(latestCamera);
+    }
+
+    /** @return Every tag on the field by id, with the reef scoring poses. */
+    public FieldTagIndex getTagIndex() {
+        return tags;
+    }
+
+    /** Returns the newest frame from any camera that saw a tag on our reef. */
+    public VisionResult getLatestResult() {
+        return latest;
+    }
+
+    /** @return The number of cameras, the most poses {@link #pollNewPoses} can return in one call. */
+    public int getCameraCount() {
+        return cameras.length;
+    }
+
+    /**
+     * Collects the field poses the cameras produced since the last call, oldest first.
+     * The poses carry the capture timestamp so the drive can line them up with its odometry history.
+     * @param poses Filled with the poses, at least {@link #getCameraCount()} long.
+     * @return How many poses were filled in.
+     */
+    public int pollNewPoses(EstimatedRobotPose[] poses) {
+        int count = 0;
+        for (VisionCamera camera : cameras) {
+            camera.poll();
+            EstimatedRobotPose pose = camera.pollNewPose();
+            if (pose == null) continue;
+            // Insertion sort by capture time, there is at most one pose per camera
+            int i = count++;
+            while (i > 0 && poses[i - 1].timestampSeconds > pose.timestampSeconds) {
+                poses[i] = poses[i - 1];
+                i--;}
+            poses[i] = pose;}
+
+        // Of poses captured at about the same time keep the one that used the most tags
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (kept > 0 && poses[i].timestampSeconds - poses[kept - 1].timestampSeconds <= PhotonVisionConstants.kMergeWindowSeconds) {
+                if (poses[i].targetsUsed.size() > poses[kept - 1].targetsUsed.size()) {
+                    poses[kept - 1] = poses[i];}}
+            else {
+                poses[kept++] = poses[i];}}
+        for (int i = kept; i < count; i++) {
+            poses[i] = null;}
+        return kept;
+    }
+
+    public boolean targetVisible() {
+        return latest.targetVisible;
     }
 }
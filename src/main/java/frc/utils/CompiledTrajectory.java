@@ -0,0 +1,248 @@
+package frc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.trajectory.Trajectory;
+
+/**
+ * A trajectory stored as fixed-width samples in a byte buffer.
+ *
+ * <p>The format is a header of four ints (magic, version, sample count, waypoint count) and two
+ * doubles (start and end robot heading in radians), then the time each waypoint is reached, one
+ * double per waypoint, followed by one row of seven doubles per sample: time, x, y, direction of
+ * travel, velocity, acceleration and curvature. Everything is little endian.
+ * {@link TrajectoryCompiler} writes these files on the desktop and the robot maps them straight
+ * into memory, so loading a path is an mmap and sampling it is a binary search with no allocation.
+ */
+public final class CompiledTrajectory {
+
+    public static final String kExtension = ".traj";
+
+    static final int kMagic = 0x4A415254; // "TRAJ"
+    static final int kVersion = 2;
+    static final int kHeaderBytes = 4 * Integer.BYTES + 2 * Double.BYTES;
+    static final int kFieldsPerSample = 7;
+
+    private static final int kTime = 0;
+    private static final int kX = 1;
+    private static final int kY = 2;
+    private static final int kTheta = 3;
+    private static final int kVelocity = 4;
+    private static final int kAcceleration = 5;
+    private static final int kCurvature = 6;
+
+    /** One sample of the trajectory, reused by the caller across loops. */
+    public static final class Sample {
+        public double timeSeconds;
+        public double x;
+        public double y;
+        public double thetaRadians;
+        public double velocityMetersPerSecond;
+        public double accelerationMetersPerSecondSq;
+        public double curvatureRadPerMeter;
+    }
+
+    private final ByteBuffer buffer;
+    private final DoubleBuffer samples;
+    private final int count;
+    private final double[] waypointTimes;
+    private final Rotation2d startHeading;
+    private final Rotation2d endHeading;
+
+    private CompiledTrajectory(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != kMagic || buffer.getInt(4) != kVersion) {
+            throw new IOException("not a version " + kVersion + " trajectory");
+        }
+        count = buffer.getInt(8);
+        int waypoints = buffer.getInt(12);
+        int sampleStart = kHeaderBytes + waypoints * Double.BYTES;
+        if (count < 1 || waypoints < 2 || buffer.capacity() != sampleStart + count * kFieldsPerSample * Double.BYTES) {
+            throw new IOException("trajectory is truncated");
+        }
+        startHeading = new Rotation2d(buffer.getDouble(16));
+        endHeading = new Rotation2d(buffer.getDouble(24));
+        waypointTimes = new double[waypoints];
+        for (int i = 0; i < waypoints; i++) {
+            waypointTimes[i] = buffer.getDouble(kHeaderBytes + i * Double.BYTES);
+        }
+        samples = buffer.position(sampleStart).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    /**
+     * Maps a compiled trajectory file into memory.
+     * @param file A file written by {@link TrajectoryCompiler}.
+     * @throws IOException If the file can't be read or isn't a compiled trajectory.
+     */
+    public static CompiledTrajectory map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CompiledTrajectory(buffer);
+        }
+    }
+
+    /**
+     * Packs a generated trajectory into the compiled format in memory.
+     * @param trajectory The generated trajectory.
+     * @param startHeading The heading the robot starts the path at.
+     * @param endHeading The heading the robot should finish the path at.
+     * @param waypointTimes When the trajectory reaches each of its waypoints, first and last included.
+     */
+    public static CompiledTrajectory of(Trajectory trajectory, Rotation2d startHeading, Rotation2d endHeading,
+            double[] waypointTimes) {
+        List<Trajectory.State> states = trajectory.getStates();
+        ByteBuffer buffer = ByteBuffer.allocate(kHeaderBytes + waypointTimes.length * Double.BYTES
+                + states.size() * kFieldsPerSample * Double.BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(kMagic).putInt(kVersion).putInt(states.size()).putInt(waypointTimes.length);
+        buffer.putDouble(startHeading.getRadians()).putDouble(endHeading.getRadians());
+        for (double time : waypointTimes) {
+            buffer.putDouble(time);
+        }
+        for (Trajectory.State state : states) {
+            buffer.putDouble(state.timeSeconds)
+                .putDouble(state.poseMeters.getX())
+                .putDouble(state.poseMeters.getY())
+                .putDouble(state.poseMeters.getRotation().getRadians())
+                .putDouble(state.velocityMetersPerSecond)
+                .putDouble(state.accelerationMetersPerSecondSq)
+                .putDouble(state.curvatureRadPerMeter);
+        }
+        try {
+            return new CompiledTrajectory(buffer.clear());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the trajectory to a file that {@link #map(File)} can load.
+     * @param file The file to write, replaced if it exists.
+     */
+    public void write(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer contents = buffer.duplicate().clear();
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+        }
+    }
+
+    /** @return The number of samples in the trajectory. */
+    public int getSampleCount() {
+        return count;
+    }
+
+    /** @return How long the trajectory takes, in seconds. */
+    public double getTotalTimeSeconds() {
+        return field(count - 1, kTime);
+    }
+
+    /** @return The number of segments between waypoints, one less than the number of waypoints. */
+    public int getSegmentCount() {
+        return waypointTimes.length - 1;
+    }
+
+    /** @return When the trajectory reaches a waypoint, in seconds from the start; waypoint 0 is the start. */
+    public double getWaypointTime(int waypoint) {
+        return waypointTimes[waypoint];
+    }
+
+    /** @return The heading the robot starts the path at. */
+    public Rotation2d getStartHeading() {
+        return startHeading;
+    }
+
+    /** @return The heading the robot should finish the path at. */
+    public Rotation2d getEndHeading() {
+        return endHeading;
+    }
+
+    /** @return Where the robot should be at the start of the path, facing its start heading. */
+    public Pose2d getInitialPose() {
+        return new Pose2d(field(0, kX), field(0, kY), startHeading);
+    }
+
+    private double field(int sample, int field) {
+        return samples.get(sample * kFieldsPerSample + field);
+    }
+
+    /**
+     * Samples the trajectory at a time, the same way {@link Trajectory#sample(double)} does:
+     * the distance along the segment follows the segment's start velocity and acceleration.
+     * @param timeSeconds Time since the start of the path, clamped to the path.
+     * @param out Filled in with the sample.
+     * @return out, for chaining.
+     */
+    public Sample sample(double timeSeconds, Sample out) {
+        if (timeSeconds <= field(0, kTime)) {
+            return copy(0, out);
+        }
+        if (timeSeconds >= getTotalTimeSeconds()) {
+            return copy(count - 1, out);
+        }
+
+        // Find the first sample after the time
+        int low = 1;
+        int high = count - 1;
+        while (low != high) {
+            int mid = (low + high) >>> 1;
+            if (field(mid, kTime) < timeSeconds) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int prev = low - 1;
+        int next = low;
+
+        double prevTime = field(prev, kTime);
+        double segmentTime = field(next, kTime) - prevTime;
+        if (Math.abs(segmentTime) < 1e-9) {
+            return copy(next, out);
+        }
+
+        double dt = timeSeconds - prevTime;
+        double v = field(prev, kVelocity);
+        double a = field(prev, kAcceleration);
+        double dx = field(next, kX) - field(prev, kX);
+        double dy = field(next, kY) - field(prev, kY);
+        double segmentLength = Math.hypot(dx, dy);
+        double fraction = segmentLength < 1e-9 ? dt / segmentTime : (v * dt + 0.5 * a * dt * dt) / segmentLength;
+
+        out.timeSeconds = timeSeconds;
+        out.x = field(prev, kX) + dx * fraction;
+        out.y = field(prev, kY) + dy * fraction;
+        out.thetaRadians = field(prev, kTheta)
+            + MathUtil.angleModulus(field(next, kTheta) - field(prev, kTheta)) * fraction;
+        out.velocityMetersPerSecond = v + a * dt;
+        out.accelerationMetersPerSecondSq = a;
+        out.curvatureRadPerMeter = field(prev, kCurvature)
+            + (field(next, kCurvature) - field(prev, kCurvature)) * fraction;
+        return out;
+    }
+
+    private Sample copy(int sample, Sample out) {
+        out.timeSeconds = field(sample, kTime);
+        out.x = field(sample, kX);
+        out.y = field(sample, kY);
+        out.thetaRadians = field(sample, kTheta);
+        out.velocityMetersPerSecond = field(sample, kVelocity);
+        out.accelerationMetersPerSecondSq = field(sample, kAcceleration);
+        out.curvatureRadPerMeter = field(sample, kCurvature);
+        return out;
+    }
+}
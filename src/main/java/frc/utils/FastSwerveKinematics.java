@@ -0,0 +1,168 @@
+package frc.utils;
+
+/**
+ * Inverse kinematics for our four module swerve, on primitive arrays.
+ *
+ * <p>Does what ChassisSpeeds.fromFieldRelativeSpeeds, SwerveDriveKinematics.toSwerveModuleStates,
+ * desaturateWheelSpeeds and SwerveModuleState.optimize do for the drive, without allocating. Each
+ * module's state is a speed and the cosine and sine of its angle, the same numbers a Rotation2d
+ * holds. Every step does the same floating point operations in the same order as WPILib, so the
+ * results match it exactly rather than just closely. As in WPILib, a module that isn't asked to
+ * move keeps the last angle it was given.
+ *
+ * <p>The helpers for a single module work on a three element state, {speed, cos, sin}.
+ */
+public class FastSwerveKinematics {
+
+    public static final int kModuleCount = 4;
+
+    /** Indexes into a single module state. */
+    public static final int kSpeed = 0;
+    public static final int kCos = 1;
+    public static final int kSin = 2;
+
+    // Rotation2d.kPi, whose sine isn't exactly zero
+    private static final double kPiCos = Math.cos(Math.PI);
+    private static final double kPiSin = Math.sin(Math.PI);
+
+    // Module positions from the robot center, front left, front right, rear left, rear right
+    private final double[] moduleX = new double[kModuleCount];
+    private final double[] moduleY = new double[kModuleCount];
+
+    // Module states from the last call, the angles are kept for modules that stop
+    private final double[] speeds = new double[kModuleCount];
+    private final double[] cos = {1.0, 1.0, 1.0, 1.0};
+    private final double[] sin = new double[kModuleCount];
+
+    /**
+     * @param wheelBase Distance between the front and rear wheels, in meters.
+     * @param trackWidth Distance between the left and right wheels, in meters.
+     */
+    public FastSwerveKinematics(double wheelBase, double trackWidth) {
+        double x = wheelBase / 2;
+        double y = trackWidth / 2;
+        moduleX[0] = x;  moduleY[0] = y;
+        moduleX[1] = x;  moduleY[1] = -y;
+        moduleX[2] = -x; moduleY[2] = y;
+        moduleX[3] = -x; moduleY[3] = -y;
+    }
+
+    /**
+     * Computes the module states for robot relative speeds.
+     * @param vx Forward speed, in meters per second.
+     * @param vy Speed to the left, in meters per second.
+     * @param omega Counterclockwise rotation, in radians per second.
+     */
+    public void toModuleStates(double vx, double vy, double omega) {
+        if (vx == 0.0 && vy == 0.0 && omega == 0.0) {
+            for (int i = 0; i < kModuleCount; i++) {
+                speeds[i] = 0.0;}
+            return;}
+
+        for (int i = 0; i < kModuleCount; i++) {
+            // Same terms in the same order as WPILib's matrix product
+            double x = vx + 0.0 * vy - moduleY[i] * omega;
+            double y = 0.0 * vx + vy + moduleX[i] * omega;
+            double speed = Math.hypot(x, y);
+            speeds[i] = speed;
+            if (speed > 1e-6) {
+                cos[i] = x / speed;
+                sin[i] = y / speed;}}
+    }
+
+    /**
+     * Computes the module states for field relative speeds.
+     * @param vx Speed away from the driver station, in meters per second.
+     * @param vy Speed to the left of the driver station, in meters per second.
+     * @param omega Counterclockwise rotation, in radians per second.
+     * @param headingRadians The robot's heading on the field, counterclockwise positive.
+     */
+    public void toModuleStatesFieldRelative(double vx, double vy, double omega, double headingRadians) {
+        // Rotate by minus the heading
+        double c = Math.cos(-headingRadians);
+        double s = Math.sin(-headingRadians);
+        toModuleStates(vx * c - vy * s, vx * s + vy * c, omega);
+    }
+
+    /**
+     * Scales every module speed down in proportion so none is faster than the limit.
+     * @param maxSpeed The fastest a module can go, in meters per second.
+     */
+    public void desaturate(double maxSpeed) {
+        double realMaxSpeed = 0.0;
+        for (int i = 0; i < kModuleCount; i++) {
+            realMaxSpeed = Math.max(realMaxSpeed, Math.abs(speeds[i]));}
+        if (realMaxSpeed > maxSpeed) {
+            for (int i = 0; i < kModuleCount; i++) {
+                speeds[i] = speeds[i] / realMaxSpeed * maxSpeed;}}
+    }
+
+    /** @return The speed of a module, in meters per second. */
+    public double getSpeed(int module) {
+        return speeds[module];
+    }
+
+    /** @return The cosine of a module's angle. */
+    public double getCos(int module) {
+        return cos[module];
+    }
+
+    /** @return The sine of a module's angle. */
+    public double getSin(int module) {
+        return sin[module];
+    }
+
+    /**
+     * Rotates a module state's angle in place, like Rotation2d.rotateBy.
+     * @param state {speed, cos, sin}.
+     * @param byCos The cosine of the angle to rotate by.
+     * @param bySin The sine of the angle to rotate by.
+     */
+    public static void rotateBy(double[] state, double byCos, double bySin) {
+        double c = state[kCos];
+        double s = state[kSin];
+        setAngle(state, c * byCos - s * bySin, c * bySin + s * byCos);
+    }
+
+    /**
+     * Flips a module state in place if that turns the module less than 90 degrees, like
+     * SwerveModuleState.optimize.
+     * @param state {speed, cos, sin}.
+     * @param currentRadians The module's current angle.
+     */
+    public static void optimize(double[] state, double currentRadians) {
+        double c = state[kCos];
+        double s = state[kSin];
+        double currentCos = Math.cos(-currentRadians);
+        double currentSin = Math.sin(-currentRadians);
+        // The angle from the current one to the target, normalized like a Rotation2d
+        double deltaCos = c * currentCos - s * currentSin;
+        double deltaSin = c * currentSin + s * currentCos;
+        double magnitude = Math.hypot(deltaCos, deltaSin);
+        if (magnitude > 1e-6) {
+            deltaCos /= magnitude;
+            deltaSin /= magnitude;
+        } else {
+            deltaCos = 1.0;
+            deltaSin = 0.0;}
+        if (Math.abs(Math.toDegrees(Math.atan2(deltaSin, deltaCos))) > 90.0) {
+            state[kSpeed] *= -1;
+            rotateBy(state, kPiCos, kPiSin);}
+    }
+
+    /** @return The angle of a module state in radians, from -pi to pi. */
+    public static double getRadians(double[] state) {
+        return Math.atan2(state[kSin], state[kCos]);
+    }
+
+    // Sets the angle from a vector, normalized the way the Rotation2d constructor does
+    private static void setAngle(double[] state, double x, double y) {
+        double magnitude = Math.hypot(x, y);
+        if (magnitude > 1e-6) {
+            state[kCos] = x / magnitude;
+            state[kSin] = y / magnitude;
+        } else {
+            state[kCos] = 1.0;
+            state[kSin] = 0.0;}
+    }
+}
@@ -0,0 +1,105 @@
+package frc.utils;
+
+/**
+ * Least squares fit of a gravity feedforward, V = kS * sign(v) + kG + kV * v + kA * a.
+ *
+ * <p>Samples are folded straight into the normal equations, so the fitter uses a fixed amount
+ * of memory however long the characterization runs. Acceleration is estimated by differencing
+ * consecutive velocity samples.
+ */
+public class FeedforwardFitter {
+
+    private static final int kTerms = 4;
+
+    private final double[][] xtx = new double[kTerms][kTerms];
+    private final double[] xty = new double[kTerms];
+    private final double[] row = new double[kTerms];
+    private final double minVelocity;
+
+    private double lastVelocity = Double.NaN;
+    private double lastTime;
+    private int sampleCount;
+
+    /**
+     * Creates a fitter.
+     * @param minVelocity Samples slower than this are skipped, since the direction of static friction is unknown.
+     */
+    public FeedforwardFitter(double minVelocity) {
+        this.minVelocity = minVelocity;
+    }
+
+    /**
+     * Adds one sample.
+     * @param timeSeconds When the sample was taken.
+     * @param voltage The voltage applied to the motors.
+     * @param velocity The measured velocity.
+     */
+    public void addSample(double timeSeconds, double voltage, double velocity) {
+        if (Double.isNaN(lastVelocity) || timeSeconds <= lastTime) {
+            lastVelocity = velocity;
+            lastTime = timeSeconds;
+            return;
+        }
+        double acceleration = (velocity - lastVelocity) / (timeSeconds - lastTime);
+        lastVelocity = velocity;
+        lastTime = timeSeconds;
+        if (Math.abs(velocity) < minVelocity) return;
+
+        row[0] = Math.signum(velocity);
+        row[1] = 1.0;
+        row[2] = velocity;
+        row[3] = acceleration;
+        for (int i = 0; i < kTerms; i++) {
+            for (int j = 0; j < kTerms; j++) {
+                xtx[i][j] += row[i] * row[j];
+            }
+            xty[i] += row[i] * voltage;
+        }
+        sampleCount++;
+    }
+
+    /** Marks a break between test runs, so acceleration isn't differenced across them. */
+    public void startNewRun() {
+        lastVelocity = Double.NaN;
+    }
+
+    /** @return The number of samples used in the fit. */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Solves for the gains.
+     * @return {kS, kG, kV, kA}, or null if the samples don't pin down all four terms.
+     */
+    public double[] fit() {
+        // Gaussian elimination with partial pivoting on a copy of the normal equations
+        double[][] a = new double[kTerms][kTerms + 1];
+        for (int i = 0; i < kTerms; i++) {
+            System.arraycopy(xtx[i], 0, a[i], 0, kTerms);
+            a[i][kTerms] = xty[i];
+        }
+        for (int col = 0; col < kTerms; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < kTerms; r++) {
+                if (Math.abs(a[r][col]) > Math.abs(a[pivot][col])) pivot = r;
+            }
+            if (Math.abs(a[pivot][col]) < 1e-9) return null;
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            for (int r = 0; r < kTerms; r++) {
+                if (r == col) continue;
+                double factor = a[r][col] / a[col][col];
+                for (int c = col; c <= kTerms; c++) {
+                    a[r][c] -= factor * a[col][c];
+                }
+            }
+        }
+        double[] gains = new double[kTerms];
+        for (int i = 0; i < kTerms; i++) {
+            gains[i] = a[i][kTerms] / a[i][i];
+        }
+        return gains;
+    }
+}
@@ -0,0 +1,117 @@
+package frc.utils;
+
+import java.util.Arrays;
+
+import edu.wpi.first.apriltag.AprilTag;
+import edu.wpi.first.apriltag.AprilTagFieldLayout;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Transform2d;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.DriverStation.Alliance;
+import frc.robot.Constants.ReefAlignConstants;
+
+/**
+ * Every AprilTag on the field, indexed by fiducial id.
+ *
+ * <p>Built once from the field layout. Each id has its field pose and, for reef tags, the reef face
+ * and alliance, plus the scoring poses for the left branch, the center and the right branch of that
+ * face. Lookups are array reads, so the camera threads can use them on every frame. The alliance
+ * comes from the driver station through {@link #updateAlliance()}, called from the main loop;
+ * until it is known, reef tags of both alliances count as ours.
+ */
+public class FieldTagIndex {
+
+    /** Where to stop in front of a reef face, left and right as seen by the robot facing the tag. */
+    public enum Branch { LEFT, CENTER, RIGHT }
+
+    private static final byte kNoAlliance = 0;
+    private static final byte kBlue = 1;
+    private static final byte kRed = 2;
+
+    private final Pose2d[] tagPoses;
+    private final int[] reefFaces;
+    private final byte[] alliances;
+    // Scoring poses by branch ordinal, then by id
+    private final Pose2d[][] scoringPoses = new Pose2d[Branch.values().length][];
+
+    private volatile byte ourAlliance = kNoAlliance;
+
+    public FieldTagIndex(AprilTagFieldLayout layout) {
+        int maxId = 0;
+        for (AprilTag tag : layout.getTags()) {
+            maxId = Math.max(maxId, tag.ID);}
+        tagPoses = new Pose2d[maxId + 1];
+        reefFaces = new int[maxId + 1];
+        alliances = new byte[maxId + 1];
+        Arrays.fill(reefFaces, -1);
+        for (AprilTag tag : layout.getTags()) {
+            tagPoses[tag.ID] = tag.pose.toPose2d();}
+
+        addReef(ReefAlignConstants.kBlueReefTags, kBlue);
+        addReef(ReefAlignConstants.kRedReefTags, kRed);
+
+        // The scoring pose faces back at the tag, whose X axis points out of the tag face, so the
+        // robot's left is the tag's right
+        for (Branch branch : Branch.values()) {
+            double side = branch == Branch.LEFT ? -1 : branch == Branch.RIGHT ? 1 : 0;
+            Transform2d tagToScoring = new Transform2d(ReefAlignConstants.kScoringDistanceMeters,
+                side * ReefAlignConstants.kBranchOffsetMeters, Rotation2d.k180deg);
+            Pose2d[] poses = new Pose2d[maxId + 1];
+            for (int id = 0; id <= maxId; id++) {
+                if (reefFaces[id] >= 0) {
+                    poses[id] = tagPoses[id].plus(tagToScoring);}}
+            scoringPoses[branch.ordinal()] = poses;}
+    }
+
+    private void addReef(int[] ids, byte alliance) {
+        for (int face = 0; face < ids.length; face++) {
+            int id = ids[face];
+            if (id >= tagPoses.length || tagPoses[id] == null) continue;
+            reefFaces[id] = face;
+            alliances[id] = alliance;}
+    }
+
+    /** Reads the alliance from the driver station. Call from the main loop. */
+    public void updateAlliance() {
+        var alliance = DriverStation.getAlliance();
+        ourAlliance = alliance.isEmpty() ? kNoAlliance : alliance.get() == Alliance.Red ? kRed : kBlue;
+    }
+
+    private boolean inRange(int id) {
+        return id >= 0 && id < tagPoses.length;
+    }
+
+    /** @return The tag's pose on the field, or null if there is no tag with that id. */
+    public Pose2d getTagPose(int id) {
+        return inRange(id) ? tagPoses[id] : null;
+    }
+
+    /** @return True if the tag is on either reef. */
+    public boolean isReefTag(int id) {
+        return inRange(id) && reefFaces[id] >= 0;
+    }
+
+    /** @return True if the tag is on our alliance's reef, or on either reef before the alliance is known. */
+    public boolean isOurReefTag(int id) {
+        if (!isReefTag(id)) return false;
+        byte alliance = ourAlliance;
+        return alliance == kNoAlliance || alliances[id] == alliance;
+    }
+
+    /** @return The reef face the tag is on, 0 to 5, or -1 if it isn't a reef tag. */
+    public int getReefFace(int id) {
+        return inRange(id) ? reefFaces[id] : -1;
+    }
+
+    /** @return The alliance whose reef the tag is on, or null if it isn't a reef tag. */
+    public Alliance getAlliance(int id) {
+        if (!isReefTag(id)) return null;
+        return alliances[id] == kRed ? Alliance.Red : Alliance.Blue;
+    }
+
+    /** @return Where the robot center should be to score on a branch of the tag's face, or null if it isn't a reef tag. */
+    public Pose2d getScoringPose(int id, Branch branch) {
+        return inRange(id) ? scoringPoses[branch.ordinal()][id] : null;
+    }
+}
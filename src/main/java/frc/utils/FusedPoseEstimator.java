@@ -0,0 +1,224 @@
+package frc.utils;
+
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+
+/**
+ * Fuses wheel odometry with latency delayed vision poses.
+ *
+ * <p>Odometry poses are kept in a fixed size ring buffer of primitive arrays together with
+ * the time they were measured. A vision pose is compared against the odometry pose that was
+ * current when the camera captured the frame, and the difference is folded into a
+ * field-from-odometry offset. Every odometry pose after the capture time is then seen through
+ * the corrected offset, which is the same as replaying the newer odometry on top of the vision
+ * fix. Nothing is allocated once the estimator is constructed, except for {@link #getPose()}
+ * and {@link #getPoseAt(double)}.
+ *
+ * <p>The odometry history can also be read from other threads through
+ * {@link #getOdometryAt(double, double[])}, so everything that changes it is synchronized.
+ */
+public class FusedPoseEstimator {
+
+    private final int capacity;
+    private final double[] times;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] thetas;
+    private int head; // index of the newest sample
+    private int size;
+
+    // Field pose = rotate(odometry pose, offsetTheta) + (offsetX, offsetY)
+    private double offsetX;
+    private double offsetY;
+    private double offsetTheta;
+
+    private final double translationGain;
+    private final double rotationGain;
+
+    // Odometry x, y and heading at a past time, filled in by odometryAt
+    private final double[] odometry = new double[3];
+
+    /**
+     * Creates an estimator.
+     * @param capacity The number of odometry samples to keep. Vision older than the oldest sample is dropped.
+     * @param odometryTranslationStdDev How much the odometry translation is trusted, in meters.
+     * @param odometryRotationStdDev How much the odometry heading is trusted, in radians.
+     * @param visionTranslationStdDev How much the vision translation is trusted, in meters.
+     * @param visionRotationStdDev How much the vision heading is trusted, in radians.
+     */
+    public FusedPoseEstimator(int capacity, double odometryTranslationStdDev, double odometryRotationStdDev,
+            double visionTranslationStdDev, double visionRotationStdDev) {
+        this.capacity = capacity;
+        times = new double[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        thetas = new double[capacity];
+        translationGain = gain(odometryTranslationStdDev, visionTranslationStdDev);
+        rotationGain = gain(odometryRotationStdDev, visionRotationStdDev);
+        head = -1;
+    }
+
+    // Same steady state gain WPILib's pose estimators use for a single state with these variances
+    private static double gain(double odometryStdDev, double visionStdDev) {
+        double q = odometryStdDev * odometryStdDev;
+        double r = visionStdDev * visionStdDev;
+        if (q == 0.0) return 0.0;
+        return q / (q + Math.sqrt(q * r));
+    }
+
+    /**
+     * Records an odometry pose.
+     * @param timestampSeconds When the pose was measured, in the FPGA time base.
+     * @param x The odometry x in meters.
+     * @param y The odometry y in meters.
+     * @param theta The odometry heading in radians.
+     */
+    public synchronized void addOdometry(double timestampSeconds, double x, double y, double theta) {
+        if (size > 0 && timestampSeconds <= times[head]) return; // keep the buffer strictly increasing
+        head = (head + 1) % capacity;
+        times[head] = timestampSeconds;
+        xs[head] = x;
+        ys[head] = y;
+        thetas[head] = theta;
+        if (size < capacity) size++;
+    }
+
+    /**
+     * Folds in a vision pose measured at the given capture time.
+     * @param timestampSeconds When the camera captured the frame, in the FPGA time base.
+     * @param x The field x in meters.
+     * @param y The field y in meters.
+     * @param theta The field heading in radians.
+     * @return true if the measurement was used, false if it was outside the buffered history.
+     */
+    public synchronized boolean addVisionMeasurement(double timestampSeconds, double x, double y, double theta) {
+        if (!odometryAt(timestampSeconds, odometry)) return false;
+        double odomX = odometry[0];
+        double odomY = odometry[1];
+        double odomTheta = odometry[2];
+
+        // Where we thought we were at the capture time
+        double cos = Math.cos(offsetTheta);
+        double sin = Math.sin(offsetTheta);
+        double fieldX = odomX * cos - odomY * sin + offsetX;
+        double fieldY = odomX * sin + odomY * cos + offsetY;
+        double fieldTheta = odomTheta + offsetTheta;
+
+        // Blend towards the vision pose
+        double targetX = fieldX + (x - fieldX) * translationGain;
+        double targetY = fieldY + (y - fieldY) * translationGain;
+        double targetTheta = fieldTheta + MathUtil.angleModulus(theta - fieldTheta) * rotationGain;
+
+        // Solve for the offset that maps the old odometry pose onto the blended pose
+        offsetTheta = MathUtil.angleModulus(targetTheta - odomTheta);
+        cos = Math.cos(offsetTheta);
+        sin = Math.sin(offsetTheta);
+        offsetX = targetX - (odomX * cos - odomY * sin);
+        offsetY = targetY - (odomX * sin + odomY * cos);
+        return true;
+    }
+
+    /**
+     * Returns where the robot was at a past time, seen through the current vision offset so it is
+     * in the same frame as {@link #getPose()}. Something measured relative to the robot at that
+     * time can be added to this pose to put it on the field as the robot sees it now.
+     * @param timestampSeconds The time, in the FPGA time base.
+     * @return The fused field pose at that time, or null if it is older than the buffered history.
+     */
+    public Pose2d getPoseAt(double timestampSeconds) {
+        if (!odometryAt(timestampSeconds, odometry)) return null;
+        double cos = Math.cos(offsetTheta);
+        double sin = Math.sin(offsetTheta);
+        return new Pose2d(
+            odometry[0] * cos - odometry[1] * sin + offsetX,
+            odometry[0] * sin + odometry[1] * cos + offsetY,
+            new Rotation2d(odometry[2] + offsetTheta));
+    }
+
+    /**
+     * Looks up the raw odometry pose at a past time, without the vision offset. Safe to call from
+     * any thread.
+     * @param timestampSeconds The time, in the FPGA time base.
+     * @param pose Filled in with the odometry x and y in meters and heading in radians.
+     * @return false if the time is older than the buffered history.
+     */
+    public synchronized boolean getOdometryAt(double timestampSeconds, double[] pose) {
+        return odometryAt(timestampSeconds, pose);
+    }
+
+    // Odometry pose at a past time, interpolated between the two samples around it.
+    // Returns false if the time is older than the history.
+    private boolean odometryAt(double timestampSeconds, double[] pose) {
+        if (size == 0) return false;
+        int oldest = (head - size + 1 + capacity) % capacity;
+        if (timestampSeconds < times[oldest]) return false;
+
+        if (timestampSeconds >= times[head]) {
+            pose[0] = xs[head];
+            pose[1] = ys[head];
+            pose[2] = thetas[head];
+        } else {
+            int after = search(timestampSeconds);
+            int before = (after - 1 + capacity) % capacity;
+            double t = (timestampSeconds - times[before]) / (times[after] - times[before]);
+            pose[0] = xs[before] + (xs[after] - xs[before]) * t;
+            pose[1] = ys[before] + (ys[after] - ys[before]) * t;
+            pose[2] = thetas[before] + MathUtil.angleModulus(thetas[after] - thetas[before]) * t;
+        }
+        return true;
+    }
+
+    // Binary search for the first buffered sample at or after the given time, as a ring index
+    private int search(double timestampSeconds) {
+        int low = 0;
+        int high = size - 1;
+        int oldest = head - size + 1 + capacity;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[(oldest + mid) % capacity] < timestampSeconds) low = mid + 1;
+            else high = mid;
+        }
+        int index = (oldest + low) % capacity;
+        // The first sample is never the "after" sample because the caller checked the oldest time
+        return index == (oldest % capacity) ? (index + 1) % capacity : index;
+    }
+
+    /** @return The fused field x in meters. */
+    public double getX() {
+        return size == 0 ? offsetX : xs[head] * Math.cos(offsetTheta) - ys[head] * Math.sin(offsetTheta) + offsetX;
+    }
+
+    /** @return The fused field y in meters. */
+    public double getY() {
+        return size == 0 ? offsetY : xs[head] * Math.sin(offsetTheta) + ys[head] * Math.cos(offsetTheta) + offsetY;
+    }
+
+    /** @return The fused field heading in radians. */
+    public double getTheta() {
+        return size == 0 ? offsetTheta : MathUtil.angleModulus(thetas[head] + offsetTheta);
+    }
+
+    /** @return The fused field pose. */
+    public Pose2d getPose() {
+        return new Pose2d(getX(), getY(), new Rotation2d(getTheta()));
+    }
+
+    /**
+     * Drops the history and the vision offset, for use after the odometry itself has been reset.
+     * The reset odometry pose is recorded as the first sample, so the estimate is the reset
+     * pose straight away rather than after the next odometry update.
+     * @param timestampSeconds When the odometry was reset, in the FPGA time base.
+     * @param x The odometry x in meters.
+     * @param y The odometry y in meters.
+     * @param theta The odometry heading in radians.
+     */
+    public synchronized void reset(double timestampSeconds, double x, double y, double theta) {
+        head = -1;
+        size = 0;
+        offsetX = 0;
+        offsetY = 0;
+        offsetTheta = 0;
+        addOdometry(timestampSeconds, x, y, theta);
+    }
+}
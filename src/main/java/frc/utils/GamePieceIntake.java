@@ -0,0 +1,155 @@
+package frc.utils;
+
+import com.revrobotics.RelativeEncoder;
+import com.revrobotics.spark.SparkBase;
+
+import edu.wpi.first.math.filter.Debouncer;
+import edu.wpi.first.math.filter.LinearFilter;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * Runs a roller intake and stops it on its own once a game piece is in.
+ *
+ * <p>A piece jams the rollers, so the motor current goes up while the roller slows down. Both
+ * are low-pass filtered, and a piece is detected when the filtered current is above a threshold
+ * and the filtered speed is below one for long enough. The intake keeps pulling for a moment to
+ * seat the piece, then drops to a small holding power until the piece is ejected.
+ *
+ * <p>IDLE -> INTAKING -> PIECE_DETECTED -> HOLDING, and back to IDLE on eject.
+ */
+public class GamePieceIntake {
+
+    /** The intake states, in the order a piece goes through them. */
+    public enum State { IDLE, INTAKING, PIECE_DETECTED, HOLDING }
+
+    /**
+     * The tuning for one intake. Speeds are signed duty cycles, positive or negative depending on which way pulls the piece in.
+     * @param intakeSpeed The duty cycle that pulls a piece in.
+     * @param holdSpeed The duty cycle that keeps a held piece from slipping out.
+     * @param currentThresholdAmps Filtered current above this means the rollers are loaded.
+     * @param velocityThresholdRpm Filtered roller speed below this means the rollers are stalled on a piece.
+     * @param spinUpSeconds Detection is ignored this long after the rollers start, while they accelerate.
+     * @param detectSeconds Loaded and stalled must hold this long to count as a piece.
+     * @param seatSeconds Keeps pulling this long after detection before holding.
+     */
+    public record Tuning(double intakeSpeed, double holdSpeed, double currentThresholdAmps, double velocityThresholdRpm,
+                         double spinUpSeconds, double detectSeconds, double seatSeconds) {}
+
+    private final SparkBase spark;
+    private final RelativeEncoder encoder;
+    private final SparkSetpointWriter output;
+    private final Tuning tuning;
+
+    // Filters run every loop so they are settled by the time the rollers are loaded
+    private final LinearFilter currentFilter = LinearFilter.singlePoleIIR(0.1, 0.02);
+    private final LinearFilter velocityFilter = LinearFilter.singlePoleIIR(0.1, 0.02);
+    private final Debouncer detectDebouncer;
+
+    private State state = State.IDLE;
+    private double stateStartTime;
+    private double intakeStartTime;
+    private double filteredCurrent;
+    private double filteredVelocity;
+    private double lastAcquireSeconds;
+    private final DoubleLogEntry acquireTimeLog;
+
+    /**
+     * Creates an intake on one roller Spark.
+     * @param name The name the state and acquisition times are published under.
+     * @param spark The roller controller, the lead if there is a follower.
+     * @param output The writer the roller commands go through.
+     * @param tuning The speeds and detection thresholds.
+     */
+    public GamePieceIntake(String name, SparkBase spark, SparkSetpointWriter output, Tuning tuning) {
+        this.spark = spark;
+        this.encoder = spark.getEncoder();
+        this.output = output;
+        this.tuning = tuning;
+        this.detectDebouncer = new Debouncer(tuning.detectSeconds());
+
+        acquireTimeLog = new DoubleLogEntry(DataLogManager.getLog(), name + "/AcquireSeconds");
+
+        Telemetry.addInteger(name + "/IntakeState", () -> state.ordinal(), TelemetryConstants.kNormal);
+        Telemetry.addBoolean(name + "/HasPiece", this::hasPiece, TelemetryConstants.kNormal);
+        Telemetry.addDouble(name + "/LastAcquireSeconds", () -> lastAcquireSeconds, TelemetryConstants.kNormal);
+        Telemetry.addDouble(name + "/FilteredCurrent", () -> filteredCurrent, TelemetryConstants.kSlow);
+    }
+
+    /** Filters the roller current and speed and moves through the states. Call once per loop. */
+    public void periodic() {
+        filteredCurrent = currentFilter.calculate(spark.getOutputCurrent());
+        filteredVelocity = velocityFilter.calculate(Math.abs(encoder.getVelocity()));
+        boolean stalled = filteredCurrent > tuning.currentThresholdAmps() && filteredVelocity < tuning.velocityThresholdRpm();
+
+        double now = Timer.getFPGATimestamp();
+        switch (state) {
+            case INTAKING:
+                // Don't let the spin-up current spike look like a piece
+                boolean detected = detectDebouncer.calculate(stalled && now - stateStartTime > tuning.spinUpSeconds());
+                if (detected) {
+                    lastAcquireSeconds = now - intakeStartTime;
+                    acquireTimeLog.append(lastAcquireSeconds);
+                    setState(State.PIECE_DETECTED, now);}
+                break;
+            case PIECE_DETECTED:
+                if (now - stateStartTime > tuning.seatSeconds()) {
+                    setState(State.HOLDING, now);
+                    output.set(tuning.holdSpeed());}
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Pulls a piece in, unless one is already held. Call while the driver asks for it. */
+    public void intake() {
+        if (state == State.IDLE) {
+            intakeStartTime = Timer.getFPGATimestamp();
+            detectDebouncer.calculate(false);
+            setState(State.INTAKING, intakeStartTime);}
+        if (state == State.INTAKING || state == State.PIECE_DETECTED) {
+            output.set(tuning.intakeSpeed());}
+    }
+
+    /**
+     * Pushes the piece out and forgets it.
+     * @param speed The duty cycle to eject at.
+     */
+    public void eject(double speed) {
+        setState(State.IDLE, Timer.getFPGATimestamp());
+        output.set(speed);
+    }
+
+    /** Stops the rollers, but keeps applying the holding power if a piece is in. */
+    public void stop() {
+        if (state == State.INTAKING) {
+            setState(State.IDLE, Timer.getFPGATimestamp());}
+        if (state == State.IDLE) {
+            output.stopMotor();}
+        else {
+            output.set(state == State.HOLDING ? tuning.holdSpeed() : tuning.intakeSpeed());}
+    }
+
+    private void setState(State newState, double now) {
+        state = newState;
+        stateStartTime = now;
+    }
+
+    /** @return The current state. */
+    public State getState() {
+        return state;
+    }
+
+    /** @return True once a piece has been detected, until it is ejected. */
+    public boolean hasPiece() {
+        return state == State.PIECE_DETECTED || state == State.HOLDING;
+    }
+
+    /** @return How long the last acquisition took from the start of intaking to detection, in seconds. */
+    public double getLastAcquireSeconds() {
+        return lastAcquireSeconds;
+    }
+}
@@ -0,0 +1,73 @@
+package frc.utils;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size latency histogram with linear buckets.
+ * Recording is a division, an array increment and a compare, so it can be called
+ * many times per loop without measurable cost and without allocating.
+ */
+public class LatencyHistogram {
+
+    private final long bucketNanos;
+    private final long[] counts;
+    private long total;
+    private long maxNanos;
+
+    /**
+     * Creates a histogram.
+     * @param bucketNanos The width of each bucket in nanoseconds.
+     * @param bucketCount The number of buckets. Samples past the last bucket are counted in the last bucket.
+     */
+    public LatencyHistogram(long bucketNanos, int bucketCount) {
+        this.bucketNanos = bucketNanos;
+        this.counts = new long[bucketCount];
+    }
+
+    /**
+     * Records one sample.
+     * @param nanos The measured latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long index = nanos / bucketNanos;
+        counts[(int) Math.min(index, counts.length - 1)]++;
+        total++;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    /**
+     * Returns the latency at the given percentile, rounded up to the top of its bucket.
+     * @param percentile The percentile from 0 to 1.
+     * @return The latency in milliseconds, or 0 if nothing has been recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min((i + 1) * bucketNanos, maxNanos) * 1e-6;
+            }
+        }
+        return maxNanos * 1e-6;
+    }
+
+    /** @return The largest recorded latency in milliseconds. */
+    public double getMaxMillis() {
+        return maxNanos * 1e-6;
+    }
+
+    /** @return The number of recorded samples. */
+    public long getCount() {
+        return total;
+    }
+
+    /** Clears all recorded samples. */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        maxNanos = 0;
+    }
+}
@@ -0,0 +1,48 @@
+package frc.utils;
+
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * A latency histogram recorded on one thread and published from the main loop.
+ *
+ * <p>The recording thread calls {@link #record(long)} for every sample and {@link #summarize()}
+ * now and then. Summarizing copies the median, 99th percentile and maximum into fields the
+ * telemetry suppliers can read from the main loop without touching the histogram itself.
+ * They are published as &lt;topic&gt;P50Ms, &lt;topic&gt;P99Ms and &lt;topic&gt;MaxMs.
+ */
+public class LatencyLeg {
+
+    private final LatencyHistogram histogram;
+    private volatile double p50Millis;
+    private volatile double p99Millis;
+    private volatile double maxMillis;
+
+    /**
+     * @param topic Prefix of the published topics, for example "Vision/FrontLeftCamera/Pipeline".
+     * @param bucketNanos The width of each histogram bucket in nanoseconds.
+     * @param bucketCount The number of buckets.
+     */
+    public LatencyLeg(String topic, long bucketNanos, int bucketCount) {
+        histogram = new LatencyHistogram(bucketNanos, bucketCount);
+        Telemetry.addDouble(topic + "P50Ms", () -> p50Millis, TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "P99Ms", () -> p99Millis, TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "MaxMs", () -> maxMillis, TelemetryConstants.kSlow);
+    }
+
+    /** Records one sample, from the recording thread. */
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    /** Records one sample given in seconds, from the recording thread. */
+    public void recordSeconds(double seconds) {
+        histogram.record((long) (seconds * 1e9));
+    }
+
+    /** Updates the published percentiles, from the recording thread. */
+    public void summarize() {
+        p50Millis = histogram.getPercentileMillis(0.5);
+        p99Millis = histogram.getPercentileMillis(0.99);
+        maxMillis = histogram.getMaxMillis();
+    }
+}
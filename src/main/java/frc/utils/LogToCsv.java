@@ -0,0 +1,120 @@
+package frc.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.wpi.first.util.datalog.DataLogReader;
+import edu.wpi.first.util.datalog.DataLogRecord;
+
+/**
+ * Desktop tool that turns a robot .wpilog file into CSV.
+ *
+ * <p>The output has one row per logged value: time in seconds, entry name and value. Array
+ * values are written as a single field separated by semicolons. Run it with
+ * {@code ./gradlew logToCsv -Plog=path/to/FRC_xxx.wpilog}; the CSV is written next to the log.
+ */
+public final class LogToCsv {
+
+    private LogToCsv() {}
+
+    private static final class Entry {
+        final String name;
+        final String type;
+
+        Entry(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: LogToCsv <log.wpilog> [output.csv]");
+            System.exit(1);
+        }
+        Path input = Paths.get(args[0]);
+        Path output = args.length > 1 ? Paths.get(args[1]) : Paths.get(args[0].replaceAll("\\.wpilog$", "") + ".csv");
+
+        DataLogReader reader = new DataLogReader(input.toString());
+        if (!reader.isValid()) {
+            System.err.println("Not a valid wpilog file: " + input);
+            System.exit(1);
+        }
+
+        Map<Integer, Entry> entries = new HashMap<>();
+        long rows = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(output)) {
+            out.write("time,entry,value");
+            out.newLine();
+            for (DataLogRecord record : reader) {
+                if (record.isStart()) {
+                    DataLogRecord.StartRecordData start = record.getStartData();
+                    entries.put(start.entry, new Entry(start.name, start.type));
+                    continue;
+                }
+                if (record.isFinish()) {
+                    entries.remove(record.getFinishEntry());
+                    continue;
+                }
+                if (record.isControl()) continue;
+
+                Entry entry = entries.get(record.getEntry());
+                if (entry == null) continue;
+                String value = format(record, entry.type);
+                if (value == null) continue;
+
+                out.write(Double.toString(record.getTimestamp() * 1e-6));
+                out.write(',');
+                out.write(entry.name);
+                out.write(',');
+                out.write(value);
+                out.newLine();
+                rows++;
+            }
+        }
+        System.out.println("Wrote " + rows + " rows to " + output);
+    }
+
+    // Returns null for types that don't make sense in a CSV, like raw structs
+    private static String format(DataLogRecord record, String type) {
+        switch (type) {
+            case "double":
+                return Double.toString(record.getDouble());
+            case "float":
+                return Float.toString(record.getFloat());
+            case "int64":
+                return Long.toString(record.getInteger());
+            case "boolean":
+                return record.getBoolean() ? "1" : "0";
+            case "string":
+                return '"' + record.getString().replace("\"", "\"\"") + '"';
+            case "double[]":
+                return join(record.getDoubleArray());
+            case "int64[]": {
+                long[] values = record.getIntegerArray();
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) builder.append(';');
+                    builder.append(values[i]);
+                }
+                return builder.toString();
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static String join(double[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) builder.append(';');
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+}
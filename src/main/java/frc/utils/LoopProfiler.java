@@ -0,0 +1,139 @@
+package frc.utils;
+
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.IntegerPublisher;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+/**
+ * Times the phases of the robot loop and works out which phase blew the loop budget.
+ *
+ * <p>Each phase is wrapped with {@link #start()} and {@link #stop(int, long)}, and the loop
+ * is closed with {@link #endLoop()}. The loop starts at the first {@code start()} after the
+ * previous {@code endLoop()}. When a loop overruns, the phase that was running when the
+ * elapsed time first crossed the budget is blamed for it.
+ *
+ * <p>Histograms are published to NetworkTables every {@code publishEveryLoops} loops, so
+ * the per measurement cost is just two {@code System.nanoTime()} calls and a bucket increment.
+ */
+public class LoopProfiler {
+
+    private static final long kBucketNanos = 25_000; // 25 microseconds
+    private static final int kBucketCount = 1200;    // up to 30 milliseconds
+
+    private final String[] phaseNames;
+    private final LatencyHistogram[] phaseHistograms;
+    private final long[] phaseBlame;
+    private final LatencyHistogram loopHistogram = new LatencyHistogram(kBucketNanos, kBucketCount);
+    private final long budgetNanos;
+    private final int publishEveryLoops;
+
+    private long loopStartNanos = -1;
+    private int blamedPhase = -1;
+    private long loopCount;
+    private long overrunCount;
+    private long unattributedOverruns;
+
+    private final DoublePublisher[] NTPhaseP50;
+    private final DoublePublisher[] NTPhaseP99;
+    private final DoublePublisher[] NTPhaseMax;
+    private final IntegerPublisher[] NTPhaseBlame;
+    private final DoublePublisher NTLoopP50;
+    private final DoublePublisher NTLoopP99;
+    private final DoublePublisher NTLoopMax;
+    private final IntegerPublisher NTOverruns;
+    private final IntegerPublisher NTUnattributed;
+
+    /**
+     * Creates a loop profiler.
+     * @param tableName The NetworkTables table to publish to.
+     * @param budgetSeconds The loop period; loops longer than this count as overruns.
+     * @param publishEveryLoops How many loops to wait between publishes.
+     * @param phaseNames The names of the phases, indexed by the ids passed to {@link #stop(int, long)}.
+     */
+    public LoopProfiler(String tableName, double budgetSeconds, int publishEveryLoops, String... phaseNames) {
+        this.phaseNames = phaseNames;
+        this.budgetNanos = (long) (budgetSeconds * 1e9);
+        this.publishEveryLoops = publishEveryLoops;
+
+        int phases = phaseNames.length;
+        phaseHistograms = new LatencyHistogram[phases];
+        phaseBlame = new long[phases];
+        NTPhaseP50 = new DoublePublisher[phases];
+        NTPhaseP99 = new DoublePublisher[phases];
+        NTPhaseMax = new DoublePublisher[phases];
+        NTPhaseBlame = new IntegerPublisher[phases];
+
+        NetworkTable table = NetworkTableInstance.getDefault().getTable(tableName);
+        for (int i = 0; i < phases; i++) {
+            phaseHistograms[i] = new LatencyHistogram(kBucketNanos, kBucketCount);
+            NetworkTable phaseTable = table.getSubTable(phaseNames[i]);
+            NTPhaseP50[i] = phaseTable.getDoubleTopic("p50ms").publish();
+            NTPhaseP99[i] = phaseTable.getDoubleTopic("p99ms").publish();
+            NTPhaseMax[i] = phaseTable.getDoubleTopic("maxms").publish();
+            NTPhaseBlame[i] = phaseTable.getIntegerTopic("OverrunsBlamed").publish();
+        }
+
+        NetworkTable loopTable = table.getSubTable("Loop");
+        NTLoopP50 = loopTable.getDoubleTopic("p50ms").publish();
+        NTLoopP99 = loopTable.getDoubleTopic("p99ms").publish();
+        NTLoopMax = loopTable.getDoubleTopic("maxms").publish();
+        NTOverruns = loopTable.getIntegerTopic("Overruns").publish();
+        NTUnattributed = loopTable.getIntegerTopic("OverrunsUnattributed").publish();
+    }
+
+    /**
+     * Marks the start of a phase.
+     * @return The start time to hand back to {@link #stop(int, long)}.
+     */
+    public long start() {
+        long now = System.nanoTime();
+        if (loopStartNanos < 0) loopStartNanos = now;
+        return now;
+    }
+
+    /**
+     * Marks the end of a phase and records its duration.
+     * @param phase The phase id, an index into the names given to the constructor.
+     * @param startNanos The value returned by the matching {@link #start()}.
+     */
+    public void stop(int phase, long startNanos) {
+        long now = System.nanoTime();
+        phaseHistograms[phase].record(now - startNanos);
+        if (blamedPhase < 0 && now - loopStartNanos > budgetNanos) {
+            blamedPhase = phase;
+        }
+    }
+
+    /** Closes the current loop, counts overruns and publishes if it is time to. */
+    public void endLoop() {
+        if (loopStartNanos < 0) return;
+        long elapsed = System.nanoTime() - loopStartNanos;
+        loopHistogram.record(elapsed);
+        if (elapsed > budgetNanos) {
+            overrunCount++;
+            if (blamedPhase >= 0) phaseBlame[blamedPhase]++;
+            else unattributedOverruns++;
+        }
+        loopStartNanos = -1;
+        blamedPhase = -1;
+
+        if (++loopCount % publishEveryLoops == 0) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        for (int i = 0; i < phaseNames.length; i++) {
+            NTPhaseP50[i].set(phaseHistograms[i].getPercentileMillis(0.50));
+            NTPhaseP99[i].set(phaseHistograms[i].getPercentileMillis(0.99));
+            NTPhaseMax[i].set(phaseHistograms[i].getMaxMillis());
+            NTPhaseBlame[i].set(phaseBlame[i]);
+        }
+        NTLoopP50.set(loopHistogram.getPercentileMillis(0.50));
+        NTLoopP99.set(loopHistogram.getPercentileMillis(0.99));
+        NTLoopMax.set(loopHistogram.getMaxMillis());
+        NTOverruns.set(overrunCount);
+        NTUnattributed.set(unattributedOverruns);
+    }
+}
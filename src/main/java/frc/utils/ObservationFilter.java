@@ -0,0 +1,108 @@
+package frc.utils;
+
+import java.util.Arrays;
+
+/**
+ * Rejects field positions that disagree with the other recent ones.
+ *
+ * <p>Each observation is compared with the odometry pose from when it was captured, and the
+ * difference, its residual, is what gets judged, so the robot driving across the field within the
+ * window doesn't make the newest observation look like an outlier. The last few residuals are kept
+ * in a ring buffer allocated up front. An observation is an outlier when its residual is further
+ * than a set distance from the median of the residuals still in the time window. Every observation
+ * goes into the window whether or not it is accepted, so a single bad frame is rejected but a real
+ * jump is accepted once it has been seen a few times. Until the window has enough observations,
+ * everything is accepted. An observation older than the odometry history can't be judged and is
+ * rejected.
+ */
+public class ObservationFilter {
+
+    /** Looks up the odometry pose at a past time. Called from the thread that uses the filter. */
+    @FunctionalInterface
+    public interface OdometryHistory {
+        /**
+         * @param timestampSeconds The time, in the FPGA time base.
+         * @param pose Filled in with the odometry x and y in meters and heading in radians.
+         * @return False if the time is older than the history.
+         */
+        boolean getOdometryAt(double timestampSeconds, double[] pose);
+    }
+
+    private final double[] times;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] scratch;
+    private final OdometryHistory odometryHistory;
+    private final double[] odometry = new double[3];
+    private final double windowSeconds;
+    private final double outlierMeters;
+    private final int minObservations;
+    private int next;
+    private int size;
+
+    /**
+     * @param capacity How many observations to keep.
+     * @param windowSeconds Observations older than this are ignored.
+     * @param outlierMeters How far from the median an observation can be and still be accepted.
+     * @param minObservations How many observations the window needs before anything is rejected.
+     * @param odometryHistory Where the robot's odometry was at each observation's capture time.
+     */
+    public ObservationFilter(int capacity, double windowSeconds, double outlierMeters, int minObservations,
+            OdometryHistory odometryHistory) {
+        times = new double[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        scratch = new double[capacity];
+        this.windowSeconds = windowSeconds;
+        this.outlierMeters = outlierMeters;
+        this.minObservations = minObservations;
+        this.odometryHistory = odometryHistory;
+    }
+
+    /**
+     * Records an observation and checks it against the others in the window.
+     * @param timestampSeconds When it was observed.
+     * @param x Field X in meters.
+     * @param y Field Y in meters.
+     * @return True if it agrees with the window, or the window is too small to tell.
+     */
+    public boolean accept(double timestampSeconds, double x, double y) {
+        if (!odometryHistory.getOdometryAt(timestampSeconds, odometry)) return false;
+        double residualX = x - odometry[0];
+        double residualY = y - odometry[1];
+
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (timestampSeconds - times[i] <= windowSeconds) {
+                count++;}}
+
+        boolean accepted = true;
+        if (count >= minObservations) {
+            double dx = residualX - median(xs, timestampSeconds);
+            double dy = residualY - median(ys, timestampSeconds);
+            accepted = Math.hypot(dx, dy) <= outlierMeters;}
+
+        times[next] = timestampSeconds;
+        xs[next] = residualX;
+        ys[next] = residualY;
+        next = (next + 1) % times.length;
+        size = Math.min(size + 1, times.length);
+        return accepted;
+    }
+
+    // Median of the values still in the window, sorted in the scratch array
+    private double median(double[] values, double now) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (now - times[i] <= windowSeconds) {
+                scratch[count++] = values[i];}}
+        Arrays.sort(scratch, 0, count);
+        return (count % 2 == 1) ? scratch[count / 2] : 0.5 * (scratch[count / 2 - 1] + scratch[count / 2]);
+    }
+
+    /** Forgets every observation. */
+    public void clear() {
+        size = 0;
+        next = 0;
+    }
+}
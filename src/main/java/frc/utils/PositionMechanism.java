@@ -0,0 +1,175 @@
+package frc.utils;
+
+import com.revrobotics.RelativeEncoder;
+import com.revrobotics.spark.SparkBase;
+import com.revrobotics.spark.SparkBase.ControlType;
+
+import edu.wpi.first.util.datalog.DataLog;
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.CANConstants;
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * A positional mechanism whose closed loop runs on its Spark instead of the roboRIO.
+ *
+ * <p>Goals are sent once as MAXMotion position references, so the trapezoidal profile and the
+ * position loop both run on the controller at 1 kHz. The gains and the velocity and acceleration
+ * constraints live in the Spark's closedLoop config, like the rest of its settings. Each loop the
+ * mechanism reads its encoder once, tracks whether it is at its goal, and records how long each
+ * move took. Manual duty cycle and voltage commands clear the goal.
+ */
+public class PositionMechanism {
+
+    private final String name;
+    private final SparkSetpointWriter output;
+    private final RelativeEncoder encoder;
+    private final double tolerance;
+
+    private double position;
+    private double goal = Double.NaN;
+    private double arbFeedforward;
+
+    // Time-to-goal tracking
+    private double moveStart;
+    private double moveStartTime;
+    private boolean moving;
+    private double lastMoveFrom;
+    private double lastMoveTo;
+    private double lastMoveSeconds;
+    private final DoubleLogEntry moveTimeLog;
+
+    /**
+     * Creates a mechanism on one Spark. Its closedLoop config must have the position gains and maxMotion constraints set.
+     * @param name The name the state and move times are published under.
+     * @param spark The controller that runs the mechanism, with its primary encoder as feedback.
+     * @param tolerance How close to the goal counts as there, in motor rotations.
+     */
+    public PositionMechanism(String name, SparkBase spark, double tolerance) {
+        this.name = name;
+        // Goals are in motor rotations, manual commands in duty cycle and volts
+        this.output = new SparkSetpointWriter(name, spark, CANConstants.kDutyCycleTolerance)
+            .setTolerance(ControlType.kMAXMotionPositionControl, CANConstants.kPositionGoalTolerance)
+            .setTolerance(ControlType.kVoltage, CANConstants.kVoltageTolerance);
+        this.encoder = spark.getEncoder();
+        this.tolerance = tolerance;
+
+        moveTimeLog = new DoubleLogEntry(DataLogManager.getLog(), name + "/MoveSeconds");
+
+        Telemetry.addDouble(name + "/Goal", () -> goal, TelemetryConstants.kNormal);
+        Telemetry.addBoolean(name + "/AtGoal", this::atGoal, TelemetryConstants.kNormal);
+        Telemetry.addDouble(name + "/LastMoveFrom", () -> lastMoveFrom, TelemetryConstants.kNormal);
+        Telemetry.addDouble(name + "/LastMoveTo", () -> lastMoveTo, TelemetryConstants.kNormal);
+        Telemetry.addDouble(name + "/LastMoveSeconds", () -> lastMoveSeconds, TelemetryConstants.kNormal);
+    }
+
+    /** Reads the encoder and records the move time the first time the mechanism gets within tolerance. Call once per loop. */
+    public void periodic() {
+        position = encoder.getPosition();
+        if (moving && atGoal()) {
+            moving = false;
+            lastMoveFrom = moveStart;
+            lastMoveTo = goal;
+            lastMoveSeconds = Timer.getFPGATimestamp() - moveStartTime;
+            moveTimeLog.append(lastMoveSeconds);
+        }
+    }
+
+    /**
+     * Moves to a position. Calling this every loop with the same goal costs nothing on the bus.
+     * @param goal The position in motor rotations.
+     */
+    public void setGoal(double goal) {
+        setGoal(goal, 0.0);
+    }
+
+    /**
+     * Moves to a position with an arbitrary feedforward added on the controller, for example to hold against gravity.
+     * @param goal The position in motor rotations.
+     * @param arbFeedforwardVolts The feedforward in volts.
+     */
+    public void setGoal(double goal, double arbFeedforwardVolts) {
+        if (goal != this.goal) {
+            this.goal = goal;
+            moveStart = position;
+            moveStartTime = Timer.getFPGATimestamp();
+            moving = true;
+        }
+        arbFeedforward = arbFeedforwardVolts;
+        output.setReference(goal, ControlType.kMAXMotionPositionControl, arbFeedforward);
+    }
+
+    /**
+     * Drives open loop and clears the goal.
+     * @param speed The duty cycle from -1 to 1.
+     */
+    public void set(double speed) {
+        clearGoal();
+        output.set(speed);
+    }
+
+    /**
+     * Applies a voltage and clears the goal.
+     * @param volts The voltage to apply.
+     */
+    public void setVoltage(double volts) {
+        clearGoal();
+        output.setVoltage(volts);
+    }
+
+    /** Stops the motor and clears the goal. */
+    public void stopMotor() {
+        clearGoal();
+        output.stopMotor();
+    }
+
+    /**
+     * Resets the encoder, for example when a limit switch is hit.
+     * @param position The new position in motor rotations.
+     */
+    public void resetPosition(double position) {
+        encoder.setPosition(position);
+        this.position = position;
+    }
+
+    /** Forgets the last command so the next one is always sent, for example after a reconfigure. */
+    public void invalidate() {
+        output.invalidate();
+    }
+
+    private void clearGoal() {
+        goal = Double.NaN;
+        moving = false;
+    }
+
+    /** @return The position read this loop, in motor rotations. */
+    public double getPosition() {
+        return position;
+    }
+
+    /** @return The goal in motor rotations, or NaN when driven manually. */
+    public double getGoal() {
+        return goal;
+    }
+
+    /** @return True if there is a goal and the mechanism is within tolerance of it. */
+    public boolean atGoal() {
+        return Math.abs(goal - position) < tolerance;
+    }
+
+    /** @return The time since the current move started, or zero if it is not moving to a goal. */
+    public double getTimeInMove() {
+        return moving ? Timer.getFPGATimestamp() - moveStartTime : 0.0;
+    }
+
+    /** @return How long the last completed move took, in seconds. */
+    public double getLastMoveSeconds() {
+        return lastMoveSeconds;
+    }
+
+    /** @return The name the state is published under. */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,173 @@
+package frc.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import com.revrobotics.REVLibError;
+import com.revrobotics.spark.SparkBase;
+import com.revrobotics.spark.SparkBase.PersistMode;
+import com.revrobotics.spark.SparkBase.ResetMode;
+import com.revrobotics.spark.SparkFlex;
+import com.revrobotics.spark.SparkMax;
+import com.revrobotics.spark.config.SparkBaseConfig;
+import com.revrobotics.spark.config.SparkFlexConfigAccessor;
+import com.revrobotics.spark.config.SparkMaxConfigAccessor;
+
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Filesystem;
+import edu.wpi.first.wpilibj.RobotBase;
+import frc.robot.Constants.CANConstants;
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * Configures every Spark at startup, all at once, and only writes flash when the config changed.
+ *
+ * <p>Persisting parameters is a blocking flash write that takes a while on each controller, and
+ * with the Sparks configured one after another it made up most of the boot time. Each config is
+ * fingerprinted from its flattened parameters and the controller's firmware version, and the
+ * fingerprint of the last config persisted to each CAN id is kept in a file on the roboRIO. A
+ * controller whose fingerprint matches should already hold the config in flash, so it is still
+ * reset and configured but not persisted. The fingerprint file can't see a controller that was
+ * swapped or had its flash changed by another program, so a few key parameters are read back
+ * before and after configuring it; if configuring changed any of them the flash didn't hold the
+ * config and it is persisted after all. A new config, new firmware, or an unknown or failed
+ * controller is persisted as before. In simulation nothing is persisted or remembered.
+ *
+ * <p>The controllers are independent, so each one is configured on its own thread as soon as its
+ * subsystem asks. {@link #awaitAll()} waits for all of them and reports how long it took under
+ * Startup/SparkConfigSeconds, along with how many controllers had to be persisted.
+ */
+public class SparkConfigurator {
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "SparkConfigurator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final File fingerprintFile =
+        new File(Filesystem.getOperatingDirectory(), CANConstants.kConfigFingerprintFile);
+    private static final Properties fingerprints = loadFingerprints();
+
+    private static final List<Future<Boolean>> pending = new ArrayList<>();
+    private static long firstStart;
+    private static double configSeconds;
+    private static int persistedCount;
+
+    private SparkConfigurator() {}
+
+    /**
+     * Starts configuring a Spark on its own thread. Call {@link #awaitAll()} before relying on the config.
+     * @param spark The controller.
+     * @param config Its config, which must not be changed until {@link #awaitAll()} returns.
+     */
+    public static synchronized void configure(SparkBase spark, SparkBaseConfig config) {
+        if (pending.isEmpty()) {
+            firstStart = System.nanoTime();}
+        pending.add(executor.submit(() -> apply(spark, config)));
+    }
+
+    // Configures one controller, returns true if it had to be persisted
+    private static boolean apply(SparkBase spark, SparkBaseConfig config) {
+        String key = Integer.toString(spark.getDeviceId());
+        int firmware = spark.getFirmwareVersion();
+        // Firmware reads 0 until the controller has answered, so it can't be trusted to match
+        String fingerprint = firmware == 0 || RobotBase.isSimulation() ? null : fingerprint(config, firmware);
+        boolean persist = RobotBase.isReal() && (fingerprint == null || !fingerprint.equals(fingerprints.getProperty(key)));
+        // What the controller came up with, which is what its flash holds
+        String before = persist || RobotBase.isSimulation() ? null : readBack(spark);
+
+        REVLibError error = spark.configure(config, ResetMode.kResetSafeParameters,
+            persist ? PersistMode.kPersistParameters : PersistMode.kNoPersistParameters);
+        if (error == REVLibError.kOk && before != null && !before.equals(readBack(spark))) {
+            DriverStation.reportWarning("Spark " + key + " flash didn't match its fingerprint, persisting", false);
+            persist = true;
+            error = spark.configure(config, ResetMode.kNoResetSafeParameters, PersistMode.kPersistParameters);}
+        if (error != REVLibError.kOk) {
+            DriverStation.reportError("Spark " + key + " configure failed: " + error, false);
+            // Persist it again next boot
+            fingerprints.remove(key);
+            return persist;}
+        if (persist && fingerprint != null) {
+            fingerprints.setProperty(key, fingerprint);}
+        return persist;
+    }
+
+    // Key parameters as the controller reports them: idle mode, inversion, current limit, encoder
+    // conversion factor and slot 0 P gain
+    private static String readBack(SparkBase spark) {
+        if (spark instanceof SparkMax max) {
+            SparkMaxConfigAccessor accessor = max.configAccessor;
+            return accessor.getIdleMode() + "," + accessor.getInverted() + "," + accessor.getSmartCurrentLimit()
+                + "," + accessor.encoder.getPositionConversionFactor() + "," + accessor.closedLoop.getP();}
+        if (spark instanceof SparkFlex flex) {
+            SparkFlexConfigAccessor accessor = flex.configAccessor;
+            return accessor.getIdleMode() + "," + accessor.getInverted() + "," + accessor.getSmartCurrentLimit()
+                + "," + accessor.encoder.getPositionConversionFactor() + "," + accessor.closedLoop.getP();}
+        return "";
+    }
+
+    private static String fingerprint(SparkBaseConfig config, int firmware) {
+        CRC32 crc = new CRC32();
+        crc.update(config.flatten().getBytes(StandardCharsets.UTF_8));
+        return Integer.toHexString(firmware) + ":" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Waits for every Spark to be configured, saves the fingerprints of the ones that were
+     * persisted, and reports the total configuration time.
+     */
+    public static synchronized void awaitAll() {
+        if (pending.isEmpty()) return;
+
+        int persisted = 0;
+        for (Future<Boolean> result : pending) {
+            try {
+                if (result.get()) {
+                    persisted++;}
+            } catch (InterruptedException | ExecutionException e) {
+                DriverStation.reportError("Spark configure failed: " + e.getMessage(), false);}}
+        pending.clear();
+        configSeconds = (System.nanoTime() - firstStart) * 1e-9;
+        persistedCount = persisted;
+
+        if (persisted > 0 && RobotBase.isReal()) {
+            saveFingerprints();}
+
+        new DoubleLogEntry(DataLogManager.getLog(), "Startup/SparkConfigSeconds").append(configSeconds);
+        Telemetry.addDouble("Startup/SparkConfigSeconds", () -> configSeconds, TelemetryConstants.kSlow);
+        Telemetry.addInteger("Startup/SparkConfigsPersisted", () -> persistedCount, TelemetryConstants.kSlow);
+    }
+
+    private static Properties loadFingerprints() {
+        Properties properties = new Properties();
+        if (RobotBase.isReal() && fingerprintFile.isFile()) {
+            try (InputStream in = new FileInputStream(fingerprintFile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                DriverStation.reportWarning("Could not read Spark config fingerprints: " + e.getMessage(), false);}}
+        return properties;
+    }
+
+    private static void saveFingerprints() {
+        try (OutputStream out = new FileOutputStream(fingerprintFile)) {
+            fingerprints.store(out, "Last config persisted to each Spark by CAN id, firmware:crc of the flattened config");
+        } catch (IOException e) {
+            DriverStation.reportWarning("Could not save Spark config fingerprints: " + e.getMessage(), false);}
+    }
+}
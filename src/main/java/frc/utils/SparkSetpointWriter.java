@@ -0,0 +1,151 @@
+package frc.utils;
+
+import java.util.Arrays;
+
+import com.revrobotics.spark.ClosedLoopSlot;
+import com.revrobotics.spark.SparkBase;
+import com.revrobotics.spark.SparkBase.ControlType;
+import com.revrobotics.spark.SparkClosedLoopController;
+import com.revrobotics.spark.SparkClosedLoopController.ArbFFUnits;
+
+import edu.wpi.first.wpilibj.Timer;
+import frc.robot.Constants.CANConstants;
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * Sits between a subsystem and a Spark and only sends setpoints that changed.
+ *
+ * <p>The last value and control type sent to the controller are remembered. A new command
+ * that is within the tolerance of the last one is suppressed, unless the keep-alive period has
+ * passed since the last real write. Every write costs a CAN frame and a JNI call, so with a
+ * dozen and a half Sparks on the bus this cuts a lot of traffic when the robot is idle or holding.
+ */
+public class SparkSetpointWriter {
+
+    private final String name;
+    private final SparkBase spark;
+    private final SparkClosedLoopController controller;
+    // Tolerance by control type ordinal, in the units of each type
+    private final double[] tolerances = new double[ControlType.values().length];
+
+    private ControlType lastType;
+    private double lastValue = Double.NaN;
+    private double lastArbFeedforward;
+    private double lastSendTime;
+    private long sentCount;
+    private long suppressedCount;
+
+    /**
+     * Creates a writer for one Spark.
+     * @param name The name the write counts are published under.
+     * @param spark The controller to write to.
+     * @param tolerance Commands closer than this to the last one sent are suppressed, for every control type
+     *                  unless {@link #setTolerance} gives one its own.
+     */
+    public SparkSetpointWriter(String name, SparkBase spark, double tolerance) {
+        this.name = name;
+        this.spark = spark;
+        this.controller = spark.getClosedLoopController();
+        Arrays.fill(tolerances, tolerance);
+
+        Telemetry.addInteger("CAN/" + name + "/WritesSent", () -> sentCount, TelemetryConstants.kSlow);
+        Telemetry.addInteger("CAN/" + name + "/WritesSuppressed", () -> suppressedCount, TelemetryConstants.kSlow);
+    }
+
+    /**
+     * Sets the duty cycle, like {@link SparkBase#set(double)}.
+     * @param speed The duty cycle from -1 to 1.
+     */
+    public void set(double speed) {
+        if (shouldSend(speed, ControlType.kDutyCycle, 0.0)) {
+            spark.set(speed);
+        }
+    }
+
+    /** Stops the motor, like {@link SparkBase#stopMotor()}. */
+    public void stopMotor() {
+        if (shouldSend(0.0, ControlType.kDutyCycle, 0.0)) {
+            spark.stopMotor();
+        }
+    }
+
+    /**
+     * Sets a closed loop reference, like {@link SparkClosedLoopController#setReference(double, ControlType)}.
+     * @param value The setpoint in the units of the control type.
+     * @param type The control type.
+     */
+    public void setReference(double value, ControlType type) {
+        if (shouldSend(value, type, 0.0)) {
+            controller.setReference(value, type);
+        }
+    }
+
+    /**
+     * Sets a closed loop reference with an arbitrary feedforward added on the controller.
+     * @param value The setpoint in the units of the control type.
+     * @param type The control type.
+     * @param arbFeedforwardVolts The feedforward in volts.
+     */
+    public void setReference(double value, ControlType type, double arbFeedforwardVolts) {
+        if (shouldSend(value, type, arbFeedforwardVolts)) {
+            controller.setReference(value, type, ClosedLoopSlot.kSlot0, arbFeedforwardVolts, ArbFFUnits.kVoltage);
+        }
+    }
+
+    /**
+     * Sets the motor voltage.
+     * @param volts The voltage to apply.
+     */
+    public void setVoltage(double volts) {
+        setReference(volts, ControlType.kVoltage);
+    }
+
+    /**
+     * Sets the tolerance for one control type, for writers that send setpoints in more than one unit.
+     * @param type The control type.
+     * @param tolerance Commands of that type closer than this to the last one sent are suppressed, in its units.
+     * @return This writer, for chaining.
+     */
+    public SparkSetpointWriter setTolerance(ControlType type, double tolerance) {
+        tolerances[type.ordinal()] = tolerance;
+        return this;
+    }
+
+    /** Forgets the last command so the next one is always sent, for example after a reconfigure. */
+    public void invalidate() {
+        lastValue = Double.NaN;
+        lastType = null;
+    }
+
+    private boolean shouldSend(double value, ControlType type, double arbFeedforward) {
+        double now = Timer.getFPGATimestamp();
+        if (type == lastType
+                && Math.abs(value - lastValue) <= tolerances[type.ordinal()]
+                && Math.abs(arbFeedforward - lastArbFeedforward) <= CANConstants.kArbFeedforwardTolerance
+                && now - lastSendTime < CANConstants.kSetpointKeepAliveSeconds) {
+            suppressedCount++;
+            return false;
+        }
+        lastType = type;
+        lastValue = value;
+        lastArbFeedforward = arbFeedforward;
+        lastSendTime = now;
+        sentCount++;
+        return true;
+    }
+
+    /** @return The name the counts are published under. */
+    public String getName() {
+        return name;
+    }
+
+    /** @return The number of writes that went to the controller. */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /** @return The number of writes that were skipped. */
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+}
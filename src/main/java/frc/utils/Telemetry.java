@@ -0,0 +1,156 @@
+package frc.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import edu.wpi.first.networktables.BooleanPublisher;
+import edu.wpi.first.networktables.DoublePublisher;
+import edu.wpi.first.networktables.IntegerPublisher;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.StructArrayPublisher;
+import edu.wpi.first.networktables.StructPublisher;
+import edu.wpi.first.util.struct.Struct;
+
+/**
+ * Central place for everything the robot publishes to NetworkTables.
+ *
+ * <p>Subsystems register signals once, usually in their constructor, with a supplier and a
+ * publish period in loops. {@link #update()} is called once at the end of every loop; it reads
+ * the signals that are due, publishes them through typed publishers and flushes NetworkTables
+ * once for the whole batch. Primitive signals are only sent when their value changed.
+ */
+public final class Telemetry {
+
+    private static final NetworkTableInstance nt = NetworkTableInstance.getDefault();
+    private static final List<Signal> signals = new ArrayList<>();
+    private static long loopCount;
+
+    private Telemetry() {}
+
+    private abstract static class Signal {
+        final int periodLoops;
+
+        Signal(int periodLoops) {
+            this.periodLoops = Math.max(1, periodLoops);
+        }
+
+        /** @return true if something was sent. */
+        abstract boolean publish();
+    }
+
+    /**
+     * Publishes a double.
+     * @param topic The full topic name, for example "Elevator/Position".
+     * @param supplier Reads the current value.
+     * @param periodLoops How many loops between publishes, 1 for every loop.
+     */
+    public static void addDouble(String topic, DoubleSupplier supplier, int periodLoops) {
+        DoublePublisher publisher = nt.getDoubleTopic(topic).publish();
+        signals.add(new Signal(periodLoops) {
+            double last = Double.NaN;
+
+            boolean publish() {
+                double value = supplier.getAsDouble();
+                if (value == last) return false;
+                last = value;
+                publisher.set(value);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Publishes an integer.
+     * @param topic The full topic name.
+     * @param supplier Reads the current value.
+     * @param periodLoops How many loops between publishes, 1 for every loop.
+     */
+    public static void addInteger(String topic, LongSupplier supplier, int periodLoops) {
+        IntegerPublisher publisher = nt.getIntegerTopic(topic).publish();
+        signals.add(new Signal(periodLoops) {
+            long last = Long.MIN_VALUE;
+
+            boolean publish() {
+                long value = supplier.getAsLong();
+                if (value == last) return false;
+                last = value;
+                publisher.set(value);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Publishes a boolean.
+     * @param topic The full topic name.
+     * @param supplier Reads the current value.
+     * @param periodLoops How many loops between publishes, 1 for every loop.
+     */
+    public static void addBoolean(String topic, BooleanSupplier supplier, int periodLoops) {
+        BooleanPublisher publisher = nt.getBooleanTopic(topic).publish();
+        signals.add(new Signal(periodLoops) {
+            int last = -1;
+
+            boolean publish() {
+                int value = supplier.getAsBoolean() ? 1 : 0;
+                if (value == last) return false;
+                last = value;
+                publisher.set(value == 1);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Publishes a struct packed value, such as a Pose2d.
+     * @param topic The full topic name.
+     * @param struct The struct serializer, for example {@code Pose2d.struct}.
+     * @param supplier Reads the current value.
+     * @param periodLoops How many loops between publishes, 1 for every loop.
+     */
+    public static <T> void addStruct(String topic, Struct<T> struct, Supplier<T> supplier, int periodLoops) {
+        StructPublisher<T> publisher = nt.getStructTopic(topic, struct).publish();
+        signals.add(new Signal(periodLoops) {
+            boolean publish() {
+                publisher.set(supplier.get());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Publishes a struct packed array, such as the swerve module states.
+     * @param topic The full topic name.
+     * @param struct The struct serializer, for example {@code SwerveModuleState.struct}.
+     * @param supplier Reads the current values.
+     * @param periodLoops How many loops between publishes, 1 for every loop.
+     */
+    public static <T> void addStructArray(String topic, Struct<T> struct, Supplier<T[]> supplier, int periodLoops) {
+        StructArrayPublisher<T> publisher = nt.getStructArrayTopic(topic, struct).publish();
+        signals.add(new Signal(periodLoops) {
+            boolean publish() {
+                publisher.set(supplier.get());
+                return true;
+            }
+        });
+    }
+
+    /** Publishes every signal that is due this loop and flushes them together. */
+    public static void update() {
+        loopCount++;
+        boolean sent = false;
+        for (int i = 0; i < signals.size(); i++) {
+            Signal signal = signals.get(i);
+            if (loopCount % signal.periodLoops == 0) {
+                sent |= signal.publish();
+            }
+        }
+        if (sent) {
+            nt.flush();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package frc.utils;
+
+import edu.wpi.first.wpilibj2.command.Command;
+import edu.wpi.first.wpilibj2.command.WrapperCommand;
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * Wraps a command and records how long each of its executes takes.
+ *
+ * <p>Execute times go into a histogram, and its median, 99th percentile and maximum are
+ * published under Commands/&lt;name&gt;. The wrapper has the same name and requirements as the
+ * command it wraps.
+ */
+public class TimedCommand extends WrapperCommand {
+
+    // 10 us buckets up to 2 ms, commands that take longer than that all land in the last bucket
+    private final LatencyHistogram executeTimes = new LatencyHistogram(10_000, 200);
+    private long executeCount;
+
+    /**
+     * Wraps a command.
+     * @param command The command to time. Give it a name first, the timings are published under it.
+     */
+    public TimedCommand(Command command) {
+        super(command);
+        String topic = "Commands/" + command.getName();
+        Telemetry.addBoolean(topic + "/Running", this::isScheduled, TelemetryConstants.kNormal);
+        Telemetry.addInteger(topic + "/Executes", () -> executeCount, TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "/ExecuteP50Ms", () -> executeTimes.getPercentileMillis(0.5), TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "/ExecuteP99Ms", () -> executeTimes.getPercentileMillis(0.99), TelemetryConstants.kSlow);
+        Telemetry.addDouble(topic + "/ExecuteMaxMs", executeTimes::getMaxMillis, TelemetryConstants.kSlow);
+    }
+
+    @Override
+    public void execute() {
+        long start = System.nanoTime();
+        m_command.execute();
+        executeTimes.record(System.nanoTime() - start);
+        executeCount++;
+    }
+}
@@ -0,0 +1,41 @@
+package frc.utils;
+
+import edu.wpi.first.wpilibj2.command.SubsystemBase;
+
+/**
+ * A subsystem whose periodic is timed as a phase of the loop profiler.
+ *
+ * <p>The scheduler runs every subsystem's periodic inside its own run, so without this a slow
+ * subsystem only shows up as a slow scheduler. Subsystems put their per-loop work in
+ * {@link #timedPeriodic()} instead of periodic, and once {@link #profileWith} has been called each
+ * run is recorded under the subsystem's own phase, which can then be blamed for an overrun.
+ */
+public abstract class TimedSubsystem extends SubsystemBase {
+
+    private LoopProfiler profiler;
+    private int phase;
+
+    /**
+     * Records this subsystem's periodic in a profiler from now on.
+     * @param profiler The robot's loop profiler.
+     * @param phase The phase id for this subsystem, an index into the names the profiler was built with.
+     */
+    public void profileWith(LoopProfiler profiler, int phase) {
+        this.profiler = profiler;
+        this.phase = phase;
+    }
+
+    @Override
+    public final void periodic() {
+        if (profiler == null) {
+            timedPeriodic();
+            return;
+        }
+        long start = profiler.start();
+        timedPeriodic();
+        profiler.stop(phase, start);
+    }
+
+    /** Runs once per scheduler run, in place of periodic. */
+    protected void timedPeriodic() {}
+}
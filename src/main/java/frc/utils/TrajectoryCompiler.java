@@ -0,0 +1,131 @@
+package frc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.math.geometry.Pose2d;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.trajectory.Trajectory;
+import edu.wpi.first.math.trajectory.TrajectoryConfig;
+import edu.wpi.first.math.trajectory.TrajectoryGenerator;
+import frc.robot.Constants.AutoConstants;
+import frc.robot.Constants.DriveConstants;
+
+/**
+ * Turns waypoint files into {@link CompiledTrajectory} files.
+ *
+ * <p>A path file has one waypoint per line: x and y in meters, the direction of travel and the
+ * robot heading in degrees, separated by commas. Lines starting with # are comments. Paths are
+ * drawn for the blue alliance, and the red version is mirrored through the center of the field.
+ * Run on the desktop by {@code ./gradlew compilePaths}, which deploy depends on, and writes
+ * &lt;path&gt;.blue.traj and &lt;path&gt;.red.traj for every .csv. The robot uses the same code to
+ * generate a path in memory when it has no compiled file for it.
+ */
+public final class TrajectoryCompiler {
+
+    public static final String kSourceExtension = ".csv";
+
+    private TrajectoryCompiler() {}
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TrajectoryCompiler <path directory> <output directory>");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        Files.createDirectories(output.toPath());
+
+        File[] files = input.listFiles((dir, name) -> name.endsWith(kSourceExtension));
+        if (files == null) {
+            System.err.println("No path directory at " + input);
+            System.exit(1);
+        }
+        for (File file : files) {
+            String name = pathName(file);
+            for (boolean red : new boolean[] {false, true}) {
+                CompiledTrajectory trajectory = compile(file, red);
+                File out = new File(output, compiledName(name, red));
+                trajectory.write(out);
+                System.out.printf("%s: %d samples, %.2f s, %d bytes%n",
+                    out.getName(), trajectory.getSampleCount(), trajectory.getTotalTimeSeconds(), out.length());
+            }
+        }
+    }
+
+    /** @return The name of a path file without its extension. */
+    public static String pathName(File file) {
+        return file.getName().substring(0, file.getName().length() - kSourceExtension.length());
+    }
+
+    /** @return The file name of a compiled path for an alliance. */
+    public static String compiledName(String name, boolean red) {
+        return name + (red ? ".red" : ".blue") + CompiledTrajectory.kExtension;
+    }
+
+    /**
+     * Reads a path file and generates its trajectory with the autonomous speed limits.
+     * @param file The waypoint file.
+     * @param red Whether to mirror the path for the red alliance.
+     * @throws IOException If the file can't be read or has fewer than two waypoints.
+     */
+    public static CompiledTrajectory compile(File file, boolean red) throws IOException {
+        List<Pose2d> waypoints = new ArrayList<>();
+        List<Rotation2d> headings = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split(",");
+            Pose2d waypoint = new Pose2d(
+                Double.parseDouble(fields[0].trim()),
+                Double.parseDouble(fields[1].trim()),
+                Rotation2d.fromDegrees(Double.parseDouble(fields[2].trim())));
+            Rotation2d heading = Rotation2d.fromDegrees(Double.parseDouble(fields[3].trim()));
+            waypoints.add(red ? mirror(waypoint) : waypoint);
+            headings.add(red ? heading.plus(Rotation2d.k180deg) : heading);
+        }
+        if (waypoints.size() < 2) {
+            throw new IOException("a path needs at least two waypoints");
+        }
+
+        TrajectoryConfig config = new TrajectoryConfig(
+            AutoConstants.kMaxSpeedMetersPerSecond, AutoConstants.kMaxAccelerationMetersPerSecondSquared)
+            .setKinematics(DriveConstants.kDriveKinematics);
+        Trajectory trajectory = TrajectoryGenerator.generateTrajectory(waypoints, config);
+        return CompiledTrajectory.of(trajectory, headings.get(0), headings.get(headings.size() - 1),
+            waypointTimes(trajectory, waypoints));
+    }
+
+    // The spline passes through every waypoint, so each one is reached at the closest state after the previous one
+    private static double[] waypointTimes(Trajectory trajectory, List<Pose2d> waypoints) {
+        List<Trajectory.State> states = trajectory.getStates();
+        double[] times = new double[waypoints.size()];
+        int state = 0;
+        for (int i = 1; i < waypoints.size() - 1; i++) {
+            Translation2d waypoint = waypoints.get(i).getTranslation();
+            double closest = Double.POSITIVE_INFINITY;
+            for (int j = state; j < states.size(); j++) {
+                double distance = states.get(j).poseMeters.getTranslation().getDistance(waypoint);
+                if (distance < closest) {
+                    closest = distance;
+                    state = j;
+                }
+            }
+            times[i] = states.get(state).timeSeconds;
+        }
+        times[times.length - 1] = trajectory.getTotalTimeSeconds();
+        return times;
+    }
+
+    // The 2025 field is rotationally symmetric, so the red side is the blue side turned half way around the center
+    private static Pose2d mirror(Pose2d waypoint) {
+        return new Pose2d(
+            AutoConstants.kFieldLengthMeters - waypoint.getX(),
+            AutoConstants.kFieldWidthMeters - waypoint.getY(),
+            waypoint.getRotation().plus(Rotation2d.k180deg));
+    }
+}
@@ -0,0 +1,81 @@
+package frc.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.wpi.first.util.datalog.DoubleLogEntry;
+import edu.wpi.first.wpilibj.DataLogManager;
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.DriverStation.Alliance;
+import edu.wpi.first.wpilibj.Filesystem;
+import frc.robot.Constants.AutoConstants;
+import frc.robot.Constants.TelemetryConstants;
+
+/**
+ * Loads every autonomous path in the deploy directory at startup, for both alliances.
+ *
+ * <p>Deploy puts the compiled .traj files made by {@link TrajectoryCompiler} next to the
+ * waypoint files, and those are memory-mapped. A path without a compiled file, such as in
+ * simulation where the deploy directory is the source tree, is generated from its waypoints
+ * instead. Either way everything is ready before the match and autonomousInit only picks one.
+ * How long loading took is reported under Startup/PathLoadSeconds, along with how many paths had
+ * to be generated.
+ */
+public class TrajectoryLibrary {
+
+    private final Map<String, CompiledTrajectory> bluePaths = new HashMap<>();
+    private final Map<String, CompiledTrajectory> redPaths = new HashMap<>();
+
+    private double loadSeconds;
+    private int generatedCount;
+
+    /** Loads every .csv path in the path directory. */
+    public TrajectoryLibrary() {
+        File directory = new File(Filesystem.getDeployDirectory(), AutoConstants.kPathDirectory);
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(TrajectoryCompiler.kSourceExtension));
+        if (files == null) {
+            DriverStation.reportWarning("No path directory at " + directory, false);
+            return;
+        }
+
+        long start = System.nanoTime();
+        int generated = 0;
+        for (File file : files) {
+            String name = TrajectoryCompiler.pathName(file);
+            try {
+                for (boolean red : new boolean[] {false, true}) {
+                    File compiled = new File(directory, TrajectoryCompiler.compiledName(name, red));
+                    CompiledTrajectory trajectory;
+                    if (compiled.isFile()) {
+                        trajectory = CompiledTrajectory.map(compiled);
+                    } else {
+                        trajectory = TrajectoryCompiler.compile(file, red);
+                        generated++;
+                    }
+                    (red ? redPaths : bluePaths).put(name, trajectory);
+                }
+            } catch (IOException | RuntimeException e) {
+                DriverStation.reportError("Could not load path " + name + ": " + e.getMessage(), false);
+            }
+        }
+        loadSeconds = (System.nanoTime() - start) * 1e-9;
+        generatedCount = generated;
+
+        new DoubleLogEntry(DataLogManager.getLog(), "Startup/PathLoadSeconds").append(loadSeconds);
+        Telemetry.addDouble("Startup/PathLoadSeconds", () -> loadSeconds, TelemetryConstants.kSlow);
+        Telemetry.addInteger("Startup/PathsLoaded", () -> bluePaths.size(), TelemetryConstants.kSlow);
+        Telemetry.addInteger("Startup/PathsGenerated", () -> generatedCount, TelemetryConstants.kSlow);
+    }
+
+    /**
+     * Returns a path for the alliance the driver station reports, blue if it doesn't report one.
+     * @param name The file name of the path without .csv.
+     * @return The path, or null if there is no path with that name.
+     */
+    public CompiledTrajectory get(String name) {
+        boolean red = DriverStation.getAlliance().orElse(Alliance.Blue) == Alliance.Red;
+        return (red ? redPaths : bluePaths).get(name);
+    }
+}
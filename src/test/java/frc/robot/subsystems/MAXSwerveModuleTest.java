@@ -0,0 +1,140 @@
+package frc.robot.subsystems;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.math.MathUtil;
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.kinematics.SwerveModulePosition;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.robot.Constants.DriveConstants;
+
+/**
+ * Checks the modules against the simulated HAL: filling the reused position holders
+ * allocates nothing at any module angle, the holders never keep a stale angle, and the
+ * primitive setDesiredState commands exactly what the SwerveModuleState one does.
+ */
+class MAXSwerveModuleTest {
+
+  private static final int kCycles = 10_000;
+
+  // Turning encoder positions across its whole [0, 2 pi) range, past pi included
+  private static final double[] kTurningPositions = {0.0, 0.3, 1.9, Math.PI, Math.PI + 0.4, 4.7, 2 * Math.PI - 0.2};
+
+  private static MAXSwerveModule[] modules;
+
+  @BeforeAll
+  static void setup() {
+    HAL.initialize(500, 0);
+    // One module per chassis angular offset
+    modules = new MAXSwerveModule[] {
+        new MAXSwerveModule(DriveConstants.kFrontLeftDrivingCanId, DriveConstants.kFrontLeftTurningCanId,
+            DriveConstants.kFrontLeftChassisAngularOffset),
+        new MAXSwerveModule(DriveConstants.kFrontRightDrivingCanId, DriveConstants.kFrontRightTurningCanId,
+            DriveConstants.kFrontRightChassisAngularOffset),
+        new MAXSwerveModule(DriveConstants.kRearLeftDrivingCanId, DriveConstants.kRearLeftTurningCanId,
+            DriveConstants.kBackLeftChassisAngularOffset),
+        new MAXSwerveModule(DriveConstants.kRearRightDrivingCanId, DriveConstants.kRearRightTurningCanId,
+            DriveConstants.kBackRightChassisAngularOffset)
+    };
+  }
+
+  @AfterAll
+  static void tearDown() {
+    HAL.shutdown();
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+  }
+
+  private static void updateAll(SwerveModulePosition[] positions) {
+    for (int i = 0; i < modules.length; i++) {
+      modules[i].updatePosition(positions[i]);
+    }
+  }
+
+  @Test
+  void odometryCycleAllocatesNothingAtAnyAngle() {
+    SwerveModulePosition[] positions = {
+        new SwerveModulePosition(), new SwerveModulePosition(),
+        new SwerveModulePosition(), new SwerveModulePosition()
+    };
+
+    for (double turningPosition : kTurningPositions) {
+      for (MAXSwerveModule module : modules) {
+        module.setSimulatedTurningPosition(turningPosition);
+      }
+
+      // Warm up so the JIT has compiled the path, and so the holders have the current angle
+      for (int i = 0; i < kCycles; i++) {
+        updateAll(positions);
+      }
+      Rotation2d[] angles = new Rotation2d[positions.length];
+      for (int i = 0; i < positions.length; i++) {
+        angles[i] = positions[i].angle;
+      }
+
+      // Reading the allocation counter can cost a few bytes itself, measure that first
+      long start = allocatedBytes();
+      long overhead = allocatedBytes() - start;
+
+      start = allocatedBytes();
+      for (int i = 0; i < kCycles; i++) {
+        updateAll(positions);
+      }
+      long allocated = allocatedBytes() - start - overhead;
+
+      assertEquals(0, allocated, "bytes allocated over " + kCycles + " odometry cycles at encoder position "
+          + turningPosition);
+      for (int i = 0; i < positions.length; i++) {
+        assertSame(angles[i], positions[i].angle);
+        assertEquals(MathUtil.angleModulus(modules[i].getTurningAngleRadians()),
+            positions[i].angle.getRadians(), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  void primitiveDesiredStateCommandsTheSameSetpoints() {
+    for (double turningPosition : kTurningPositions) {
+      for (MAXSwerveModule module : modules) {
+        module.setSimulatedTurningPosition(turningPosition);
+        for (int i = 0; i < 16; i++) {
+          Rotation2d angle = new Rotation2d(i * Math.PI / 8 - Math.PI);
+          double speed = (i % 3 == 0) ? 0.0 : 1.5;
+
+          module.setDesiredState(new SwerveModuleState(speed, angle));
+          double speedSetpoint = module.getCommandedSpeed();
+          double angleSetpoint = module.getCommandedAngle();
+          module.setDesiredState(speed, angle.getCos(), angle.getSin());
+
+          String input = "angle " + angle.getDegrees() + " at encoder position " + turningPosition;
+          assertEquals(speedSetpoint, module.getCommandedSpeed(), 0.0, input);
+          assertEquals(angleSetpoint, module.getCommandedAngle(), 0.0, input);
+        }
+      }
+    }
+  }
+
+  @Test
+  void holderWrittenElsewhereGetsCurrentAngle() {
+    MAXSwerveModule module = modules[0];
+    module.setSimulatedTurningPosition(Math.PI + 0.4);
+    SwerveModulePosition position = new SwerveModulePosition();
+    module.updatePosition(position);
+
+    // Something else, like the odometry sampler, writes a different angle into the same holder
+    position.angle = Rotation2d.fromDegrees(137);
+    module.updatePosition(position);
+
+    assertEquals(MathUtil.angleModulus(module.getTurningAngleRadians()), position.angle.getRadians(), 1e-9);
+  }
+}
@@ -0,0 +1,120 @@
+package frc.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import edu.wpi.first.math.geometry.Rotation2d;
+import edu.wpi.first.math.geometry.Translation2d;
+import edu.wpi.first.math.kinematics.ChassisSpeeds;
+import edu.wpi.first.math.kinematics.SwerveDriveKinematics;
+import edu.wpi.first.math.kinematics.SwerveModuleState;
+import frc.robot.Constants.DriveConstants;
+
+/**
+ * Checks that FastSwerveKinematics gives exactly the numbers WPILib does, not just close ones,
+ * for robot and field relative speeds, stopped modules, desaturation and the optimize flip.
+ */
+class FastSwerveKinematicsTest {
+
+    private static final int kDirections = 16;
+
+    private SwerveDriveKinematics wpilib;
+    private FastSwerveKinematics fast;
+    private final double[] state = new double[3];
+
+    @BeforeEach
+    void setup() {
+        wpilib = new SwerveDriveKinematics(
+            new Translation2d(DriveConstants.kWheelBase / 2, DriveConstants.kTrackWidth / 2),
+            new Translation2d(DriveConstants.kWheelBase / 2, -DriveConstants.kTrackWidth / 2),
+            new Translation2d(-DriveConstants.kWheelBase / 2, DriveConstants.kTrackWidth / 2),
+            new Translation2d(-DriveConstants.kWheelBase / 2, -DriveConstants.kTrackWidth / 2));
+        fast = new FastSwerveKinematics(DriveConstants.kWheelBase, DriveConstants.kTrackWidth);
+    }
+
+    // Exact comparison of every module, speed and the cosine and sine its Rotation2d holds
+    private void assertMatches(SwerveModuleState[] states, String input) {
+        for (int m = 0; m < FastSwerveKinematics.kModuleCount; m++) {
+            assertEquals(states[m].speedMetersPerSecond, fast.getSpeed(m), 0.0, "speed of module " + m + " for " + input);
+            assertEquals(states[m].angle.getCos(), fast.getCos(m), 0.0, "cos of module " + m + " for " + input);
+            assertEquals(states[m].angle.getSin(), fast.getSin(m), 0.0, "sin of module " + m + " for " + input);
+        }
+    }
+
+    @Test
+    void robotRelativeMatchesWpilib() {
+        for (int i = 0; i < kDirections; i++) {
+            double angle = i * 2 * Math.PI / kDirections;
+            double vx = Math.cos(angle) * DriveConstants.kMaxSpeedMetersPerSecond;
+            double vy = Math.sin(angle) * DriveConstants.kMaxSpeedMetersPerSecond;
+            for (double omega : new double[] {0.0, 0.5 * DriveConstants.kMaxAngularSpeed, -DriveConstants.kMaxAngularSpeed}) {
+                SwerveModuleState[] states = wpilib.toSwerveModuleStates(new ChassisSpeeds(vx, vy, omega));
+                SwerveDriveKinematics.desaturateWheelSpeeds(states, DriveConstants.kMaxSpeedMetersPerSecond);
+                fast.toModuleStates(vx, vy, omega);
+                fast.desaturate(DriveConstants.kMaxSpeedMetersPerSecond);
+                assertMatches(states, "vx " + vx + " vy " + vy + " omega " + omega);
+            }
+        }
+    }
+
+    @Test
+    void fieldRelativeMatchesWpilib() {
+        for (int i = 0; i < kDirections; i++) {
+            double angle = i * 2 * Math.PI / kDirections;
+            double vx = Math.cos(angle) * DriveConstants.kMaxSpeedMetersPerSecond;
+            double vy = Math.sin(angle) * DriveConstants.kMaxSpeedMetersPerSecond;
+            double omega = ((i % 2 == 0) ? 0.5 : -0.5) * DriveConstants.kMaxAngularSpeed;
+            double heading = (i * 47) % 360 - 180;
+            SwerveModuleState[] states = wpilib.toSwerveModuleStates(
+                ChassisSpeeds.fromFieldRelativeSpeeds(vx, vy, omega, Rotation2d.fromDegrees(heading)));
+            SwerveDriveKinematics.desaturateWheelSpeeds(states, DriveConstants.kMaxSpeedMetersPerSecond);
+            fast.toModuleStatesFieldRelative(vx, vy, omega, Math.toRadians(heading));
+            fast.desaturate(DriveConstants.kMaxSpeedMetersPerSecond);
+            assertMatches(states, "heading " + heading);
+        }
+    }
+
+    @Test
+    void stoppedModulesKeepTheirAngles() {
+        for (int i = 0; i < kDirections; i++) {
+            double angle = i * 2 * Math.PI / kDirections;
+            double vx = Math.cos(angle);
+            double vy = Math.sin(angle);
+            wpilib.toSwerveModuleStates(new ChassisSpeeds(vx, vy, 0.3));
+            fast.toModuleStates(vx, vy, 0.3);
+
+            // Asked for nothing, every module stops where it was pointing
+            SwerveModuleState[] states = wpilib.toSwerveModuleStates(new ChassisSpeeds());
+            fast.toModuleStates(0.0, 0.0, 0.0);
+            assertMatches(states, "stop after direction " + i);
+        }
+    }
+
+    @Test
+    void optimizeMatchesWpilibOnBothSidesOfNinetyDegrees() {
+        boolean flipped = false;
+        for (int i = 0; i < kDirections; i++) {
+            double target = i * 2 * Math.PI / kDirections - Math.PI;
+            for (int j = 0; j < kDirections; j++) {
+                double current = (j - kDirections / 2) * 0.45;
+                SwerveModuleState wpilibState = new SwerveModuleState(1.5, new Rotation2d(target));
+                wpilibState.optimize(new Rotation2d(current));
+
+                Rotation2d targetRotation = new Rotation2d(target);
+                state[FastSwerveKinematics.kSpeed] = 1.5;
+                state[FastSwerveKinematics.kCos] = targetRotation.getCos();
+                state[FastSwerveKinematics.kSin] = targetRotation.getSin();
+                FastSwerveKinematics.optimize(state, current);
+
+                String input = "target " + target + " current " + current;
+                assertEquals(wpilibState.speedMetersPerSecond, state[FastSwerveKinematics.kSpeed], 0.0, input);
+                assertEquals(wpilibState.angle.getRadians(), FastSwerveKinematics.getRadians(state), 0.0, input);
+                flipped |= state[FastSwerveKinematics.kSpeed] < 0;
+            }
+        }
+        assertTrue(flipped, "no input made optimize flip a module");
+    }
+}